@@ -104,8 +104,9 @@ public class BrooksControl implements SpheroController {
 				CvPoint minDistPoint = tuple.x;
 				// Compute distance in centimeters
 				double minDist = Math.max(0.0, (tuple.y - sphero.getRadius()) * ground.getMmPerPx() / 10.0);
-				// Compute time to collision
-				double secToCollision = minDist / sphero.getVelocity();
+				// Compute time to collision, the observation is already as old
+				// as the time since its capture
+				double secToCollision = minDist / sphero.getVelocity() - sphero.notSeenFor() / 1000.0;
 				closestObstacle = new CvPoint(minDistPoint);
 				int angle = StaticMethods.angle(spheroCenter, minDistPoint);
 				int avoidAngle = (angle + 180) % 360;
@@ -91,7 +91,7 @@ public class SpheroConnection implements BluetoothDiscoveryListener {
 			// Search for sphero in the image until it is found
 			do {
 				is.flush();
-				img.newImage(is.nextImage(), false);
+				img.newImage(is.nextFrame(), false);
 				interpreter.location(img, -1.0);
 				center = sphero.getCenter();
 				scf.refreshImage();
@@ -104,7 +104,7 @@ public class SpheroConnection implements BluetoothDiscoveryListener {
 			CvPoint center2 = null;
 			do {
 				is.flush();
-				img.newImage(is.nextImage(), false);
+				img.newImage(is.nextFrame(), false);
 				interpreter.location(img, -1.0);
 				center2 = sphero.getCenter();
 				img.drawObservation(sphero, null, null, null, null, null, null);
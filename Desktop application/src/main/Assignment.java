@@ -0,0 +1,95 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of the Hungarian method that assigns rows to columns of a
+ *                 cost matrix with the lowest total cost. Pairs with an
+ *                 infinite cost are never assigned, as many rows as possible
+ *                 get a column first. It takes O(n^2 m) time for n rows and m
+ *                 columns, which is a few microseconds for ten Spheros.
+ */
+public class Assignment {
+
+	// Cost of a pair that may not be assigned, higher than any total of
+	// allowed pairs
+	private static final double FORBIDDEN = 1e9;
+
+	/**
+	 * @param cost
+	 *            per row and column, Double.POSITIVE_INFINITY if the pair may
+	 *            not be assigned
+	 * @return column of every row, -1 if the row gets no column
+	 */
+	public static int[] solve(double[][] cost) {
+		int rows = cost.length, columns = rows > 0 ? cost[0].length : 0;
+		int[] assignment = new int[rows];
+		Arrays.fill(assignment, -1);
+		if (rows == 0 || columns == 0)
+			return assignment;
+		// The method needs at least as many columns as rows
+		boolean transposed = rows > columns;
+		int n = transposed ? columns : rows, m = transposed ? rows : columns;
+		double[][] a = new double[n + 1][m + 1];
+		for (int i = 1; i <= n; i++)
+			for (int j = 1; j <= m; j++) {
+				double c = transposed ? cost[j - 1][i - 1] : cost[i - 1][j - 1];
+				a[i][j] = Double.isInfinite(c) ? FORBIDDEN : c;
+			}
+
+		// Potentials of rows and columns, and the row of every column
+		double[] u = new double[n + 1], v = new double[m + 1], minv = new double[m + 1];
+		int[] p = new int[m + 1], way = new int[m + 1];
+		boolean[] used = new boolean[m + 1];
+		for (int i = 1; i <= n; i++) {
+			p[0] = i;
+			int j0 = 0;
+			Arrays.fill(minv, Double.POSITIVE_INFINITY);
+			Arrays.fill(used, false);
+			do {
+				used[j0] = true;
+				int i0 = p[j0], j1 = 0;
+				double delta = Double.POSITIVE_INFINITY;
+				for (int j = 1; j <= m; j++) {
+					if (!used[j]) {
+						double cur = a[i0][j] - u[i0] - v[j];
+						if (cur < minv[j]) {
+							minv[j] = cur;
+							way[j] = j0;
+						}
+						if (minv[j] < delta) {
+							delta = minv[j];
+							j1 = j;
+						}
+					}
+				}
+				for (int j = 0; j <= m; j++) {
+					if (used[j]) {
+						u[p[j]] += delta;
+						v[j] -= delta;
+					} else
+						minv[j] -= delta;
+				}
+				j0 = j1;
+			} while (p[j0] != 0);
+			// Flip the augmenting path
+			do {
+				int j1 = way[j0];
+				p[j0] = p[j1];
+				j0 = j1;
+			} while (j0 != 0);
+		}
+
+		for (int j = 1; j <= m; j++) {
+			int i = p[j];
+			if (i == 0 || a[i][j] >= FORBIDDEN)
+				continue;
+			if (transposed)
+				assignment[j - 1] = i - 1;
+			else
+				assignment[i - 1] = j - 1;
+		}
+		return assignment;
+	}
+}
@@ -30,8 +30,43 @@ public class Constant {
 			// Detection
 			NOT_SEEN_FOR = 500,
 
-			// Samling surrounding
-			SURROUNDING_DEGREES_PER_SAMPLE = 72,
+			// Capture
+			CAPTURE_BUFFERS = 3,
+
+			// Region of interest, margin in pixels
+			ROI_MARGIN = 30, ROI_STABLE_FRAMES = 30,
+
+			// Multiple cameras, in ms
+			FUSION_WINDOW = 50,
+
+			// Native memory, estimated bytes of a memory storage and frames
+			// between reports
+			NATIVE_STORAGE_BLOCK = 65536, NATIVE_MEMORY_REPORT_FRAMES = 300,
+
+			// Pyramid, minimum radius of Sphero in pixels on a level
+			PYRAMID_MAX_LEVEL = 3, PYRAMID_MIN_RADIUS = 8,
+
+			// Parallel preprocessing, 1 is off
+			IMAGE_PARALLELISM = 1, PARALLEL_MIN_STRIPE_ROWS = 32,
+
+			// Threshold lookup table, bits per bgr channel and hsb tolerance
+			THRESHOLD_LUT_BITS = 5, THRESHOLD_LUT_TOLERANCE = 3,
+
+			// Background model, updated after so many frames or ms, whichever
+			// comes first
+			BACKGROUND_EVERY_FRAMES = 3, BACKGROUND_EVERY_MS = 0,
+
+			// Foreground mask on the threshold, 1 is on, and its dilation in
+			// pixels. After Sphero stands still for a time in ms the
+			// complete window is searched as well.
+			FOREGROUND_MASK = 0, FOREGROUND_DILATION = 4, FOREGROUND_STILL_TIME = 500,
+
+			// Depth
+			DEPTH_LEARN_FRAMES = 30, DEPTH_SAMPLE_STEP = 8, DEPTH_PLANE_ITERATIONS = 3, DEPTH_PLANE_TRIALS = 200,
+
+			// CamShift tracker mode, 1 is on, bins of the hue and saturation
+			// histogram and maximum iterations
+			CAMSHIFT_TRACKING = 0, CAMSHIFT_HUE_BINS = 30, CAMSHIFT_SATURATION_BINS = 32, CAMSHIFT_ITERATIONS = 10,
 
 			// Goals
 			GOAL_RADIUS = 20,
@@ -43,7 +78,10 @@ public class Constant {
 			CONTROL_AVOID_ANGLE = 45, CONTROL_AVOID_DURATION = 300,
 			
 			// Experiment
-			PATHS_CHANGE_STATE = 4;
+			PATHS_CHANGE_STATE = 4,
+
+			// Synthetic arena
+			SYNTHETIC_SEED = 42, SYNTHETIC_NOISE_FRAMES = 4;
 
 	public static final double
 	// Color threshold
@@ -56,6 +94,8 @@ public class Constant {
 			
 			// Sphero specs
 			SPHERO_RADIUS_MM = 7.4 * 10,
+			// hsb color of the LED, used until the color of Sphero is observed
+			SPHERO_LED_HUE = 109.0, SPHERO_LED_SATURATION = 215.0, SPHERO_LED_BRIGHTNESS = 255.0,
 
 			// Control Brooks implementation
 			CONTROL_AVOID_TIME = 0.3,
@@ -70,8 +110,23 @@ public class Constant {
 			// Averaging
 			SPHERO_RADIUS_FILTER = 0.95,
 			SPHERO_COLOR_FILTER = 0.1,
-			SPHERO_VELOCITY_FILTER = 0.75,
-			SURROUNDING_SAMPLING_SCALE = 1.8,
+			SURROUNDING_SAMPLING_SCALE = 1.8, SURROUNDING_RING_WIDTH = 0.4,
+			// Part of the radius that is used for the color of Sphero
+			COLOR_REGION_SCALE = 0.5,
+			// Size of the refine window relative to the radius
+			PYRAMID_REFINE_SCALE = 1.5,
+			// Kalman filter, noise of the acceleration in px/s^2, of the
+			// observations in px and of the first velocity in px/s
+			KALMAN_ACCELERATION_NOISE = 1000.0, KALMAN_MEASUREMENT_NOISE = 2.0, KALMAN_INITIAL_VELOCITY = 200.0,
+			// Standard deviations of the prediction that are added to the gate
+			KALMAN_GATE_SIGMAS = 3.0,
+			// Blob detection, 1.0 is a perfect circle
+			BLOB_MIN_CIRCULARITY = 0.7, BLOB_RADIUS_RANGE = 1.5,
+			// Window around the last observation while Sphero is lost, in radii
+			REACQUIRE_LOCAL_GATE = 4.0,
+			// CamShift, minimum mean back projection in the ball (0 to 1) and
+			// accuracy in px
+			CAMSHIFT_MIN_CONFIDENCE = 0.4, CAMSHIFT_EPSILON = 1.0,
 
 			// Circle detection
 			CIRCLE_SEARCH_RANGE = 1.1, CIRCLE_CANNY_PARAMETER = 100.0,
@@ -84,7 +139,23 @@ public class Constant {
 			FILTER_COMMAND_VELOCITY = 0.95,
 
 			// Image
-			IMAGE_BACKGROUND_SUBTRACTION_FILTER = 0.005;
+			IMAGE_BACKGROUND_SUBTRACTION_FILTER = 0.005, BACKGROUND_SCALE = 0.25,
+
+			// Replay, frame rate of the VideoWriter
+			REPLAY_FRAME_RATE = 20.0,
+
+			// Synthetic arena, relative to the frame height and in seconds
+			SYNTHETIC_WALL_FRACTION = 0.1, SYNTHETIC_RADIUS_FRACTION = 0.05,
+			SYNTHETIC_SPEED_FRACTION = 0.3, SYNTHETIC_LIGHTING_PERIOD = 10.0,
+			// in mm
+			SYNTHETIC_CAMERA_HEIGHT = 1500.0, SYNTHETIC_WALL_HEIGHT = 250.0,
+
+			// Speed in pixels / sec below which Sphero stands still for the
+			// foreground mask
+			FOREGROUND_STILL_SPEED = 20.0,
+
+			// Depth segmentation, height above the floor in mm
+			DEPTH_MIN_HEIGHT = 20.0, DEPTH_BALL_MAX_HEIGHT = 2 * SPHERO_RADIUS_MM + 20.0;
 
 	public static final float MAX_SPEED = 1.0f, HUMAN_MAX_SPEED = 0.2f, CALIBRATION_SPEED = 0.3f, HUMAN_START = 0.15f;
 
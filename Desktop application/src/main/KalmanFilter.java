@@ -0,0 +1,131 @@
+package main;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of a constant velocity Kalman filter on a position in
+ *                 pixels. Both axes are filtered independently with a state
+ *                 of position and velocity. The acceleration of Sphero is
+ *                 modelled as white noise of Constant.KALMAN_ACCELERATION_NOISE
+ *                 px/s^2 and the observations have a noise of
+ *                 Constant.KALMAN_MEASUREMENT_NOISE px.
+ */
+public class KalmanFilter {
+
+	// Per axis: position, velocity in px/s and the covariance p00, p01, p11
+	private double[] position, velocity, p00, p01, p11;
+	private long time;
+	private boolean initialized;
+
+	public KalmanFilter() {
+		reset();
+	}
+
+	/**
+	 * Forgets the state
+	 */
+	public void reset() {
+		position = new double[2];
+		velocity = new double[2];
+		p00 = new double[2];
+		p01 = new double[2];
+		p11 = new double[2];
+		time = 0;
+		initialized = false;
+	}
+
+	/**
+	 * Predicts the state up to the timestamp and corrects it with
+	 *
+	 * @param x
+	 *            observed x coordinate
+	 * @param y
+	 *            observed y coordinate
+	 * @param timestamp
+	 *            capture time of the observation in ms
+	 */
+	public void update(double x, double y, long timestamp) {
+		double[] observed = { x, y };
+		double r = Constant.KALMAN_MEASUREMENT_NOISE * Constant.KALMAN_MEASUREMENT_NOISE;
+		if (!initialized) {
+			for (int i = 0; i < 2; i++) {
+				position[i] = observed[i];
+				velocity[i] = 0.0;
+				p00[i] = r;
+				p01[i] = 0.0;
+				p11[i] = Constant.KALMAN_INITIAL_VELOCITY * Constant.KALMAN_INITIAL_VELOCITY;
+			}
+			time = timestamp;
+			initialized = true;
+			return;
+		}
+		// Observations that are older than the state are ignored
+		double dt = Math.max(0.0, (timestamp - time) / 1000.0);
+		for (int i = 0; i < 2; i++) {
+			predict(i, dt);
+			// Correct with the observed position
+			double s = p00[i] + r;
+			double k0 = p00[i] / s, k1 = p01[i] / s;
+			double innovation = observed[i] - position[i];
+			position[i] += k0 * innovation;
+			velocity[i] += k1 * innovation;
+			double n00 = (1 - k0) * p00[i], n01 = (1 - k0) * p01[i], n11 = p11[i] - k1 * p01[i];
+			p00[i] = n00;
+			p01[i] = n01;
+			p11[i] = n11;
+		}
+		time = Math.max(time, timestamp);
+	}
+
+	/**
+	 * Moves the state of one axis dt seconds forward
+	 */
+	private void predict(int i, double dt) {
+		double q = Constant.KALMAN_ACCELERATION_NOISE * Constant.KALMAN_ACCELERATION_NOISE;
+		position[i] += velocity[i] * dt;
+		double n00 = p00[i] + 2 * dt * p01[i] + dt * dt * p11[i] + q * dt * dt * dt / 3.0;
+		double n01 = p01[i] + dt * p11[i] + q * dt * dt / 2.0;
+		double n11 = p11[i] + q * dt;
+		p00[i] = n00;
+		p01[i] = n01;
+		p11[i] = n11;
+	}
+
+	/**
+	 * @return if the filter has an observation since the last reset
+	 */
+	public boolean isInitialized() {
+		return initialized;
+	}
+
+	/**
+	 * @param timestamp
+	 *            in ms
+	 * @return predicted x and y at the timestamp, without changing the state
+	 */
+	public double[] getPosition(long timestamp) {
+		double dt = Math.max(0.0, (timestamp - time) / 1000.0);
+		return new double[] { position[0] + velocity[0] * dt, position[1] + velocity[1] * dt };
+	}
+
+	/**
+	 * @param timestamp
+	 *            in ms
+	 * @return standard deviation in px of the predicted position at the
+	 *         timestamp, the largest of both axes
+	 */
+	public double getUncertainty(long timestamp) {
+		double dt = Math.max(0.0, (timestamp - time) / 1000.0);
+		double q = Constant.KALMAN_ACCELERATION_NOISE * Constant.KALMAN_ACCELERATION_NOISE;
+		double variance = 0.0;
+		for (int i = 0; i < 2; i++)
+			variance = Math.max(variance, p00[i] + 2 * dt * p01[i] + dt * dt * p11[i] + q * dt * dt * dt / 3.0);
+		return Math.sqrt(variance);
+	}
+
+	/**
+	 * @return filtered velocity in px/s along x and y
+	 */
+	public double[] getVelocity() {
+		return new double[] { velocity[0], velocity[1] };
+	}
+}
@@ -0,0 +1,87 @@
+package main;
+
+import com.googlecode.javacv.cpp.opencv_core.CvPoint;
+import com.googlecode.javacv.cpp.opencv_core.CvScalar;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of the combination of observations of several cameras into
+ *                 one Sphero in arena coordinates. Every camera reports its
+ *                 own observations, the observations that are captured within
+ *                 Constant.FUSION_WINDOW ms of each other are averaged.
+ */
+public class ObservationFusion {
+
+	private Sphero sphero;
+	private CircleObservation[] observations;
+	private long[] times;
+	private long lastTime;
+	private double mmPerPx;
+
+	/**
+	 * Initializes the fusion for
+	 *
+	 * @param sphero
+	 *            that is updated with the fused observations and the number of
+	 * @param cameras
+	 *            that report observations
+	 */
+	public ObservationFusion(Sphero sphero, int cameras) {
+		this.sphero = sphero;
+		observations = new CircleObservation[cameras];
+		times = new long[cameras];
+		lastTime = Long.MIN_VALUE;
+		mmPerPx = -1.0;
+	}
+
+	/**
+	 * Reports an observation of one camera
+	 *
+	 * @param camera
+	 *            index of the camera
+	 * @param observation
+	 *            of Sphero in arena coordinates
+	 * @param color
+	 *            of Sphero in the image of the camera
+	 * @param timestamp
+	 *            capture time of the observation
+	 */
+	public synchronized void observe(int camera, CircleObservation observation, CvScalar color, long timestamp) {
+		observations[camera] = observation;
+		times[camera] = timestamp;
+		// An observation that is older than the last fused one is only
+		// remembered, one of the same frame time is fused with it
+		if (timestamp < lastTime)
+			return;
+		float x = 0.0f, y = 0.0f, radius = 0.0f;
+		int count = 0;
+		for (int i = 0; i < observations.length; i++) {
+			if (observations[i] != null && timestamp - times[i] <= Constant.FUSION_WINDOW) {
+				x += observations[i].x;
+				y += observations[i].y;
+				radius += observations[i].radius;
+				count++;
+			}
+		}
+		lastTime = timestamp;
+		CvPoint center = new CvPoint(Math.round(x / count), Math.round(y / count));
+		synchronized (sphero) {
+			sphero.observe(center, radius / count, color, mmPerPx, timestamp);
+		}
+	}
+
+	/**
+	 * @param mmPerPx
+	 *            size of a pixel in arena coordinates
+	 */
+	public synchronized void setMmPerPx(double mmPerPx) {
+		this.mmPerPx = mmPerPx;
+	}
+
+	/**
+	 * @return size of a pixel in arena coordinates
+	 */
+	public synchronized double getMmPerPx() {
+		return mmPerPx;
+	}
+}
@@ -1,6 +1,5 @@
 package main;
 
-import java.util.Date;
 import com.googlecode.javacv.cpp.opencv_core.CvPoint;
 import com.googlecode.javacv.cpp.opencv_core.CvScalar;
 
@@ -17,6 +16,7 @@ public class Sphero {
 	private long[] time;
 	private CvScalar color;
 	private double traveledDistance;
+	private KalmanFilter kalman;
 
 	/**
 	 * Initiates Sphero with all values set to default
@@ -39,7 +39,7 @@ public class Sphero {
 		this.center[0] = center;
 		this.radius = radius;
 		this.color = colour;
-		this.time[0] = new Date().getTime();
+		this.time[0] = StaticMethods.monotonicMillis();
 		this.startTime = this.time[0];
 	}
 
@@ -55,6 +55,7 @@ public class Sphero {
 		}
 		radius = 0;
 		color = null;
+		kalman = new KalmanFilter();
 	}
 
 	/**
@@ -69,8 +70,11 @@ public class Sphero {
 	 * @param newColor
 	 *            of Sphero, this is filtered with value
 	 *            Constant.SPHERO_COLOR_FILTER
+	 * @param timestamp
+	 *            capture time of the observation in milliseconds of
+	 *            StaticMethods.monotonicMillis()
 	 */
-	public void observe(CvPoint newCenter, float newRadius, CvScalar newColor, double mmPerPx) {
+	public void observe(CvPoint newCenter, float newRadius, CvScalar newColor, double mmPerPx, long timestamp) {
 		for (int i = Constant.SPHERO_AVERAGE_OVER - 1; i > 0; i--) {
 			this.center[i] = this.center[i - 1];
 			this.time[i] = this.time[i - 1];
@@ -84,10 +88,15 @@ public class Sphero {
 			this.color = newColor;
 		else
 			for (int i = 0; i < 3; i++) {
-				double value = color.getVal(i) * (1 - Constant.SPHERO_COLOR_FILTER) + newColor.getVal(i) * Constant.SPHERO_COLOR_FILTER;
-				color.setVal(i, value);
+				double newValue = newColor.getVal(i);
+				// Hue is a circle of 180, it is filtered along the short way
+				if (i == 0)
+					newValue -= 180.0 * Math.round((newValue - color.getVal(0)) / 180.0);
+				double value = color.getVal(i) * (1 - Constant.SPHERO_COLOR_FILTER) + newValue * Constant.SPHERO_COLOR_FILTER;
+				color.setVal(i, i == 0 ? (value + 180.0) % 180.0 : value);
 			}
-		this.time[0] = new Date().getTime();
+		this.time[0] = timestamp;
+		kalman.update(newCenter.x(), newCenter.y(), timestamp);
 		updateVelocity(mmPerPx);
 		updateDirection();
 		traveledDistance += traveledDistance(mmPerPx);
@@ -113,16 +122,13 @@ public class Sphero {
 	}
 
 	/**
-	 * Updates the velocity in cm per sec of Sphero, based on the previous
-	 * observations
+	 * Updates the velocity in cm per sec of Sphero, based on the velocity of
+	 * the Kalman filter
 	 */
 	private void updateVelocity(double mmPerPx) {
-		if (center[Constant.SPHERO_AVERAGE_OVER - 1] != null) {
-			double timeElapsed = (time[0] - time[Constant.SPHERO_AVERAGE_OVER - 1]) / 1000.0;
-			double distance = StaticMethods.distance(center[0], center[Constant.SPHERO_AVERAGE_OVER - 1]);
-			double distanceCentimeters = distance * mmPerPx / 10.0;
-			double currentSpeed = distanceCentimeters / timeElapsed;
-			velocity = StaticMethods.filter(velocity, currentSpeed, Constant.SPHERO_VELOCITY_FILTER);
+		if (mmPerPx > 0.0) {
+			double[] v = kalman.getVelocity();
+			velocity = Math.sqrt(v[0] * v[0] + v[1] * v[1]) * mmPerPx / 10.0;
 		}
 	}
 
@@ -130,14 +136,32 @@ public class Sphero {
 	 * @return if Sphero is ever observed since last reset.
 	 */
 	public boolean isObserved() {
-		return time[0] != 0;
+		return center[0] != null;
+	}
+
+	/**
+	 * @return capture time of the last observation in milliseconds of
+	 *         StaticMethods.monotonicMillis()
+	 */
+	public long getObservationTime() {
+		return time[0];
 	}
 
 	/**
-	 * @return the time since the last observation.
+	 * @return the time since the capture of the last observation.
 	 */
 	public long notSeenFor() {
-		return new Date().getTime() - time[0];
+		return StaticMethods.monotonicMillis() - time[0];
+	}
+
+	/**
+	 * @param timestamp
+	 *            capture time of the current frame, replayed frames carry the
+	 *            clock of the file instead of the wall clock
+	 * @return the time between the last observation and the frame
+	 */
+	public long notSeenFor(long timestamp) {
+		return timestamp - time[0];
 	}
 
 	@Override
@@ -149,7 +173,7 @@ public class Sphero {
 	 * @return the time since the last reset
 	 */
 	public long getTime() {
-		return (long) (new Date().getTime() - startTime);
+		return (long) (StaticMethods.monotonicMillis() - startTime);
 	}
 
 	/**
@@ -159,6 +183,29 @@ public class Sphero {
 		return center[0];
 	}
 
+	/**
+	 * @param timestamp
+	 *            in milliseconds of StaticMethods.monotonicMillis()
+	 * @return center of Sphero at the timestamp as predicted by the Kalman
+	 *         filter, null if Sphero is not observed
+	 */
+	public CvPoint getPredictedCenter(long timestamp) {
+		if (!kalman.isInitialized())
+			return null;
+		double[] position = kalman.getPosition(timestamp);
+		return new CvPoint((int) Math.round(position[0]), (int) Math.round(position[1]));
+	}
+
+	/**
+	 * @param timestamp
+	 *            in milliseconds of StaticMethods.monotonicMillis()
+	 * @return standard deviation in pixels of the predicted center at the
+	 *         timestamp
+	 */
+	public double getPredictionUncertainty(long timestamp) {
+		return kalman.getUncertainty(timestamp);
+	}
+
 	/**
 	 * @return filtered radius of Sphero
 	 */
@@ -187,6 +234,15 @@ public class Sphero {
 		return velocity;
 	}
 
+	/**
+	 * @return speed of Sphero in pixels / sec according to the Kalman filter,
+	 *         also when the size of a pixel is unknown
+	 */
+	public double getPixelSpeed() {
+		double[] v = kalman.getVelocity();
+		return Math.sqrt(v[0] * v[0] + v[1] * v[1]);
+	}
+
 	/**
 	 * @return distance that Sphero has traveled since the last time
 	 *         restartTraveledDistance() has been called
@@ -196,7 +252,8 @@ public class Sphero {
 	}
 	
 	public double getTraveledSpeed(double mmPerPx) {
-		if (Constant.SPHERO_AVERAGE_OVER > 1 && this.center[0] != null && this.center[1] != null && mmPerPx > 0.0) {
+		if (Constant.SPHERO_AVERAGE_OVER > 1 && this.center[0] != null && this.center[1] != null && mmPerPx > 0.0
+				&& this.time[0] > this.time[1]) {
 			return (StaticMethods.distance(this.center[0], this.center[1]) * mmPerPx / 10.0) / ((this.time[0] - this.time[1]) / 1000.0);
 		} else
 			return 0.0;
@@ -15,16 +15,21 @@ import output.ScreenListener;
 import output.VideoWriter;
 
 import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
 import control.BrooksControl;
 import control.Command;
 import control.Goals;
 import control.HumanControl;
 import control.SpheroConnection;
+import webcam.DepthSegmentation;
+import webcam.Frame;
 import webcam.Ground;
 import webcam.Image;
 import webcam.InputStream;
 import webcam.Interpreter;
+import webcam.NativeMemory;
 import webcam.WebcamLaptop;
+import webcam.WebcamRegion;
 import webcam.WebcamVideoFile;
 
 /**
@@ -35,6 +40,8 @@ public class SpheroExperiment extends Thread {
 	public static Logger Log = Logger.getLogger("global");//getGlobal() doesn't work
 
 	private InputStream is;
+	private WebcamRegion region;
+	private DepthSegmentation segmentation;
 	private Sphero sphero;
 	private Ground ground;
 	private SpheroConnection spheroConn;
@@ -50,8 +57,8 @@ public class SpheroExperiment extends Thread {
 	private DataLogger dataLogger;
 	private VideoWriter videoWriter;
 	private boolean run, paused, humanStart;
-	private int pathCounter;
-	private long startTime;
+	private int pathCounter, frameCounter;
+	private long startTime, lastSequence;
 	private ExperimentState state;
 
 	// TODO goals vast tapen
@@ -71,7 +78,11 @@ public class SpheroExperiment extends Thread {
 		// Create logger for extracting data
 		dataLogger = new DataLogger();
 		// Starts a thread that initialize the webcam
-		is = new WebcamLaptop(); //WebcamVideoFile was het eerst
+		// Frames are cut to the arena as soon as it is found
+		region = new WebcamRegion(new WebcamLaptop(0, true)); //WebcamVideoFile was het eerst
+		is = region;
+		// Segments Sphero and the walls if the webcam delivers depth
+		segmentation = new DepthSegmentation();
 		// Initialize all variables that are used to follow sphero
 		sphero = new Sphero();
 		// Initialize all variables that are used to detect the ground
@@ -89,8 +100,11 @@ public class SpheroExperiment extends Thread {
 		brooks = new BrooksControl(sphero, ground, goals, urdiales);
 		// Initialize the interpreter for images
 		interpreter = new Interpreter(sphero);
+		interpreter.setCamShift(Constant.CAMSHIFT_TRACKING == 1);
+		interpreter.setForegroundMask(Constant.FOREGROUND_MASK == 1);
 		// Load a new image
 		image = new Image(is.nextImage());
+		image.setParallelism(Constant.IMAGE_PARALLELISM);
 		// Create a video recorder
 		videoWriter = new VideoWriter(image, goals);
 		// Initialize the screen listener by loading all the references
@@ -109,54 +123,90 @@ public class SpheroExperiment extends Thread {
 	@Override
 	public void run() {
 		pathCounter = 0;
+		lastSequence = Long.MIN_VALUE;
 		startTime = new Date().getTime();
 		// Sphero is controlled into eternity
 		while (run) {
 			Log.finer("New loop");
+			NativeMemory.beginFrame();
 			// Set commands to default null
 			Command scCommand = null, hcCommand = null, sharedCommand = null;
 			// Get new image from the webcam stream
-			IplImage img = is.nextImage();
-			if (img != null) {
+			Frame frame = is.nextFrame();
+			// A frame that is processed already would be a second measurement
+			// at the same time for the Kalman filter and the background
+			if (frame != null && frame.getImage() != null && frame.getSequence() >= 0
+					&& frame.getSequence() == lastSequence)
+				frame = null;
+			if (frame != null && frame.getImage() != null) {
+				lastSequence = frame.getSequence();
 				// Apply the wrapper around IplImage and process the image
-				// into various other images
-				image.newImage(img, !paused);
+				// into various other images, the drawing copy is only made
+				// when the canvas is shown
+				image.setHeadless(!scf.isShowing());
+				image.newImage(frame, !paused);
+				// Use the depth to segment the image if there is any
+				IplImage depth = region.getDepth();
+				if (depth != null && segmentation.segment(depth, frame.getOffset()))
+					image.setDepth(segmentation.getBallMask(), segmentation.getFloorMask());
 				// Look for sphero in the image
 				interpreter.location(image, ground.getMmPerPx());
 				// Look for the border of the obstacles near sphero
 				ground.observe(image, sphero);
+				// Only process the arena in next frames once it is stable
+				if (sphero.isObserved())
+					region.observeArena(ground.getBoundingBox());
 				// Only send command if the process is not paused.
 				if (!paused) {
 					// Get commands from different actors and send it to Sphero
 					hcCommand = human.getCommand();
 					humanStart = humanStart || (hcCommand.getVelocity() > Constant.HUMAN_START);
 					System.out.println(hcCommand.getVelocity());
-					if (humanStart) {
-					scCommand = brooks.getCommand();
-					sharedCommand = urdiales.getCommand(scCommand, hcCommand, state);
-					// If the goal is reached certain actions should follow
-					boolean goalReached = goals.updateGoal(sphero);
-					if (goalReached)
-						goalReached();
-					sendCommand(hcCommand, scCommand, sharedCommand);
-					// Save the image to a video file for later validation
-					videoWriter.record(image.getImg());
-					// Log all information into a csv file
-					dataLogger.log(urdiales, hcCommand, scCommand, sharedCommand, goalReached, goals, state, sphero,
-							startTime);
+					if (humanStart && interpreter.isLost()) {
+						// Without a location of Sphero only the human may
+						// drive, the shared command stops Sphero
+						sendCommand(hcCommand, null, null);
+					} else if (humanStart) {
+						scCommand = brooks.getCommand();
+						sharedCommand = urdiales.getCommand(scCommand, hcCommand, state);
+						// If the goal is reached certain actions should follow
+						boolean goalReached = goals.updateGoal(sphero);
+						if (goalReached)
+							goalReached();
+						sendCommand(hcCommand, scCommand, sharedCommand);
+						// Save the image to a video file for later validation
+						videoWriter.record(frame.getOriginal());
+						// Log all information into a csv file
+						dataLogger.log(urdiales, hcCommand, scCommand, sharedCommand, goalReached, goals, state, sphero,
+								startTime);
 					} else {
 						sendCommand(null, null, null);
 					}
 				} else {
 					sendCommand(null, null, null);
 				}
+				Log.finer("Latency: " + (StaticMethods.monotonicMillis() - frame.getTimestamp()) + " ms, frame "
+						+ frame.getSequence());
 				// Refresh the image that is displayed to the expiriment
 				// leader
 				scf.refreshImage(hcCommand, scCommand, sharedCommand);
 				// Release the image
 				image.release();
 			}
+			// Report temporary native memory that is not released
+			NativeMemory.endFrame();
+			if (frameCounter++ % Constant.NATIVE_MEMORY_REPORT_FRAMES == 0) {
+				Log.fine(NativeMemory.report());
+				Log.fine("Reacquired Sphero " + interpreter.getReacquisitions() + " times, mean "
+						+ interpreter.getMeanTimeToReacquire() + " ms, max " + interpreter.getMaxTimeToReacquire()
+						+ " ms");
+				if (Constant.FOREGROUND_MASK == 1)
+					Log.fine("Found Sphero in the foreground " + interpreter.getMovingDetections()
+							+ " times, outside it while standing still " + interpreter.getStillDetections()
+							+ " times");
+			}
 		}
+		interpreter.exit();
 	}
 
 	/**
@@ -230,8 +280,10 @@ public class SpheroExperiment extends Thread {
 	 */
 	public void unPause(boolean resetBackground) {
 		is.flush();
-		if (resetBackground)
+		if (resetBackground) {
 			image.resetBackground();
+			region.resetRegion();
+		}
 		paused = false;
 	}
 
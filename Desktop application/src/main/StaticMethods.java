@@ -163,7 +163,9 @@ public class StaticMethods {
 
 	/**
 	 * Determines the average surrounding of point center in image img, where
-	 * the surrounding is further away than the radius.
+	 * the surrounding is further away than the radius. The ring around center
+	 * is split in four strips, the median of their means is robust to a wall
+	 * on one side.
 	 * 
 	 * @param img Image
 	 * @param center positions where the surroundings should be calculated of.
@@ -172,16 +174,20 @@ public class StaticMethods {
 	 */
 	public static CvScalar averageSurrounding(Image img, CvPoint center, float radius) {
 		if (center != null && radius != 0) {
-			int samples = (int) 360 / Constant.SURROUNDING_DEGREES_PER_SAMPLE, index = 0;
-			double[] h = new double[samples], s = new double[samples], b = new double[samples];
-			for (double i = 0.0; i < 360.0; i += Constant.SURROUNDING_DEGREES_PER_SAMPLE) {
-				double rad = Math.toRadians(i);
-				double dy = Math.cos(rad) * Constant.SURROUNDING_SAMPLING_SCALE * radius;
-				double dx = Math.sin(rad) * Constant.SURROUNDING_SAMPLING_SCALE * radius;
-				int x = Math.max(Math.min(center.x() + (int) dx, img.getSize().width() - 1), 0);
-				int y = Math.max(Math.min(center.y() + (int) dy, img.getSize().height() - 1), 0);
-				CvPoint point = new CvPoint(x, y);
-				CvScalar newColor = img.getColor(point, 0, true);
+			int inner = (int) Math.round((Constant.SURROUNDING_SAMPLING_SCALE - Constant.SURROUNDING_RING_WIDTH) * radius);
+			int outer = (int) Math.round((Constant.SURROUNDING_SAMPLING_SCALE + Constant.SURROUNDING_RING_WIDTH) * radius);
+			inner = Math.max(1, inner);
+			outer = Math.max(inner + 1, outer);
+			int x = center.x(), y = center.y();
+			// Top, bottom, left and right strip of the ring
+			int[][] strips = { { x - outer, y - outer, 2 * outer, outer - inner },
+					{ x - outer, y + inner, 2 * outer, outer - inner },
+					{ x - outer, y - inner, outer - inner, 2 * inner },
+					{ x + inner, y - inner, outer - inner, 2 * inner } };
+			double[] h = new double[strips.length], s = new double[strips.length], b = new double[strips.length];
+			int index = 0;
+			for (int[] strip : strips) {
+				CvScalar newColor = img.getMean(strip[0], strip[1], strip[2], strip[3], true);
 				if (newColor != null) {
 					h[index] = newColor.getVal(0);
 					s[index] = newColor.getVal(1);
@@ -189,7 +195,15 @@ public class StaticMethods {
 					index++;
 				}
 			}
-			return new CvScalar(StaticMethods.median(h), StaticMethods.median(s), StaticMethods.median(b), 0.0);
+			if (index == 0)
+				return null;
+			// Hue is a circle of 180, the hues are moved next to the hue of
+			// the first strip before the median is taken
+			for (int i = 1; i < index; i++)
+				h[i] -= 180.0 * Math.round((h[i] - h[0]) / 180.0);
+			double hue = StaticMethods.median(Arrays.copyOf(h, index));
+			return new CvScalar((hue + 180.0) % 180.0, StaticMethods.median(Arrays.copyOf(s, index)),
+					StaticMethods.median(Arrays.copyOf(b, index)), 0.0);
 		} else {
 			return null;
 		}
@@ -221,6 +235,14 @@ public class StaticMethods {
 			return diff;
 	}
 
+	/**
+	 * @return milliseconds of a monotonic clock. Only differences between two
+	 *         values are meaningful.
+	 */
+	public static long monotonicMillis() {
+		return System.nanoTime() / 1000000L;
+	}
+
 	/**
 	 * @param s String value
 	 * @param t Should be a natural number
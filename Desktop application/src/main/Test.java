@@ -13,11 +13,24 @@ import com.googlecode.javacpp.Loader;
 import com.googlecode.javacv.cpp.opencv_core.CvContour;
 import com.googlecode.javacv.cpp.opencv_core.CvMemStorage;
 import com.googlecode.javacv.cpp.opencv_core.CvPoint;
+import com.googlecode.javacv.cpp.opencv_core.CvScalar;
 import com.googlecode.javacv.cpp.opencv_core.CvSeq;
 
+import webcam.BlobDetector;
+import webcam.CameraPipeline;
+import webcam.CascadeDetector;
+import webcam.DepthSegmentation;
+import webcam.DetectorEvaluation;
+import webcam.Frame;
+import webcam.Ground;
+import webcam.HoughDetector;
 import webcam.Image;
 import webcam.InputStream;
+import webcam.Interpreter;
+import webcam.MultiInterpreter;
 import webcam.WebcamLaptop;
+import webcam.WebcamReplay;
+import webcam.WebcamSynthetic;
 import control.Command;
 
 public class Test {
@@ -47,4 +60,240 @@ public class Test {
 			image.release();
 		}
 	}
+
+	/**
+	 * Runs a recorded video through the vision pipeline as fast as possible
+	 * and prints the throughput
+	 * 
+	 * @param file video file, for example one of the VideoWriter
+	 */
+	private static void replay(String file) {
+		WebcamReplay is = new WebcamReplay(file, WebcamReplay.Mode.FAST);
+		Sphero sphero = new Sphero();
+		Ground ground = new Ground();
+		Interpreter interpreter = new Interpreter(sphero);
+		Frame frame = is.nextFrame();
+		if (frame == null) {
+			is.exit();
+			return;
+		}
+		// The first frame is interpreted as well
+		Image image = new Image(frame.getImage());
+		while (frame != null) {
+			image.newImage(frame, true);
+			interpreter.location(image, ground.getMmPerPx());
+			ground.observe(image, sphero);
+			image.release();
+			frame = is.nextFrame();
+		}
+		System.out.println(file + ": " + is.getFrameIndex() + " frames, " + is.getFramesPerSecond() + " f/s");
+		is.exit();
+	}
+
+	/**
+	 * Tracks Sphero with two webcams that are placed next to each other, the
+	 * second camera sees the part of the arena right of the first one
+	 * 
+	 * @param width of the webcam images in pixels
+	 */
+	private static void multiCamera(int width) throws InterruptedException {
+		Sphero sphero = new Sphero();
+		ObservationFusion fusion = new ObservationFusion(sphero, 2);
+		CameraPipeline[] pipelines = {
+				new CameraPipeline(0, new WebcamLaptop(0, true), new double[] { 1, 0, 0, 0, 1, 0, 0, 0, 1 }, fusion),
+				new CameraPipeline(1, new WebcamLaptop(1, true), new double[] { 1, 0, width, 0, 1, 0, 0, 0, 1 }, fusion) };
+		for (CameraPipeline pipeline : pipelines)
+			pipeline.start();
+		while (true) {
+			synchronized (sphero) {
+				System.out.println(sphero);
+			}
+			Thread.sleep(100);
+		}
+	}
+
+	/**
+	 * Runs a synthetic arena through the vision pipeline for several
+	 * resolutions and prints the processing time per frame and the mean error
+	 * of the detected center
+	 * 
+	 * @param frames number of frames per resolution
+	 * @param threads number of threads that preprocess the images
+	 */
+	private static void synthetic(int frames, int threads) {
+		int[][] resolutions = { { 640, 480 }, { 1280, 720 }, { 1920, 1080 } };
+		for (int[] resolution : resolutions) {
+			WebcamSynthetic is = new WebcamSynthetic(resolution[0], resolution[1], 0.0);
+			is.setDistortion(8.0, 3, 0.1);
+			Sphero sphero = new Sphero();
+			Ground ground = new Ground();
+			Interpreter interpreter = new Interpreter(sphero);
+			Image image = new Image(is.nextImage());
+			image.setHeadless(true);
+			image.setParallelism(threads);
+			double error = 0.0;
+			int detected = 0;
+			long start = StaticMethods.monotonicMillis();
+			for (int i = 0; i < frames; i++) {
+				image.newImage(is.nextFrame(), true);
+				interpreter.location(image, ground.getMmPerPx());
+				ground.observe(image, sphero);
+				CircleObservation truth = is.getTruePosition();
+				if (sphero.getCenter() != null && sphero.isObserved()) {
+					error += StaticMethods.dist(sphero.getCenter().x(), sphero.getCenter().y(), truth.x, truth.y);
+					detected++;
+				}
+				image.release();
+			}
+			long elapsed = StaticMethods.monotonicMillis() - start;
+			System.out.println(resolution[0] + "x" + resolution[1] + ": " + (elapsed / (double) frames) + " ms/frame, "
+					+ detected + "/" + frames + " detected, mean error " + (detected > 0 ? error / detected : 0.0) + " px");
+			System.out.println("Image pool: " + image.getPool().getHits() + " hits, " + image.getPool().getMisses()
+					+ " misses, " + image.getPool().getBytesHeld() + " bytes");
+			image.dispose();
+			is.exit();
+		}
+	}
+
+	/**
+	 * Follows Sphero in the synthetic arena under a lighting drift, once with
+	 * the color segmentation and once with the depth segmentation, and prints
+	 * the detection rate and mean error of both
+	 * 
+	 * @param frames number of frames per segmentation
+	 */
+	private static void depth(int frames) {
+		for (boolean useDepth : new boolean[] { false, true }) {
+			WebcamSynthetic is = new WebcamSynthetic(640, 480, 0.0);
+			is.setDistortion(8.0, 3, 0.4);
+			DepthSegmentation segmentation = new DepthSegmentation();
+			Sphero sphero = new Sphero();
+			Ground ground = new Ground();
+			Interpreter interpreter = new Interpreter(sphero);
+			Image image = new Image(is.nextImage());
+			image.setHeadless(true);
+			double error = 0.0;
+			int detected = 0;
+			for (int i = 0; i < frames; i++) {
+				Frame frame = is.nextFrame();
+				image.newImage(frame, true);
+				if (useDepth && segmentation.segment(is.getDepth(), frame.getOffset()))
+					image.setDepth(segmentation.getBallMask(), segmentation.getFloorMask());
+				interpreter.location(image, ground.getMmPerPx());
+				ground.observe(image, sphero);
+				CircleObservation truth = is.getTruePosition();
+				if (sphero.getCenter() != null && sphero.isObserved()) {
+					error += StaticMethods.dist(sphero.getCenter().x(), sphero.getCenter().y(), truth.x, truth.y);
+					detected++;
+				}
+				image.release();
+			}
+			System.out.println((useDepth ? "Depth" : "Color") + ": " + detected + "/" + frames
+					+ " detected, mean error " + (detected > 0 ? error / detected : 0.0) + " px");
+			segmentation.reset();
+			is.exit();
+		}
+	}
+
+	/**
+	 * Finds Sphero in the synthetic arena without an earlier color, such that
+	 * only the reacquisition worker can find it, and prints after how many
+	 * frames it is found and the color it gets
+	 * 
+	 * @param frames maximum number of frames
+	 */
+	private static void reacquireWithoutColor(int frames) {
+		WebcamSynthetic is = new WebcamSynthetic(640, 480, 0.0);
+		is.setDistortion(8.0, 3, 0.1);
+		Sphero sphero = new Sphero();
+		Ground ground = new Ground();
+		Interpreter interpreter = new Interpreter(sphero);
+		Image image = new Image(is.nextImage());
+		image.setHeadless(true);
+		int found = -1, tracked = 0;
+		for (int i = 0; i < frames; i++) {
+			image.newImage(is.nextFrame(), true);
+			interpreter.location(image, ground.getMmPerPx());
+			if (sphero.isObserved() && !interpreter.isLost()) {
+				if (found < 0)
+					found = i;
+				tracked++;
+			}
+			image.release();
+		}
+		System.out.println((found >= 0 ? "Found after " + found + " frames" : "Not found") + ", tracked " + tracked
+				+ "/" + frames + " frames, color " + sphero.getColor() + ", " + interpreter.getReacquisitions()
+				+ " reacquisitions");
+		interpreter.exit();
+		image.dispose();
+		is.exit();
+	}
+
+	/**
+	 * Tracks Sphero in the synthetic arena with the blob, Hough and cascade
+	 * detectors at the same time and prints their latency, detection rate and
+	 * mean error
+	 * 
+	 * @param frames number of frames
+	 */
+	private static void detectors(int frames) {
+		WebcamSynthetic is = new WebcamSynthetic(640, 480, 0.0);
+		is.setDistortion(8.0, 3, 0.1);
+		DetectorEvaluation evaluation = new DetectorEvaluation(new BlobDetector(), new HoughDetector(),
+				new CascadeDetector(new BlobDetector(), new HoughDetector()));
+		evaluation.run(is, frames);
+		System.out.print(evaluation.report());
+		evaluation.release();
+		is.exit();
+	}
+
+	/**
+	 * Tracks four balls of different colors in the synthetic arena and prints
+	 * the time of the data association and the number of frames in which a
+	 * track was on another ball than its own
+	 * 
+	 * @param frames number of frames
+	 */
+	private static void multiSphero(int frames) {
+		WebcamSynthetic is = new WebcamSynthetic(640, 480, 0.0);
+		is.setDistortion(8.0, 3, 0.1);
+		// Hues of 15, 60, 105 and 150 with the same saturation and brightness
+		is.setBalls(new CvScalar(40, 148, 255, 0), new CvScalar(40, 255, 40, 0), new CvScalar(255, 148, 40, 0),
+				new CvScalar(255, 40, 255, 0));
+		CvScalar[] colors = { new CvScalar(15, 215, 255, 0), new CvScalar(60, 215, 255, 0),
+				new CvScalar(105, 215, 255, 0), new CvScalar(150, 215, 255, 0) };
+		MultiInterpreter interpreter = new MultiInterpreter(colors, (float) (480 * Constant.SYNTHETIC_RADIUS_FRACTION));
+		Frame frame = is.nextFrame();
+		Image image = new Image(frame.getImage());
+		image.setHeadless(true);
+		int observations = 0, swaps = 0;
+		for (int i = 0; i < frames && frame != null; i++) {
+			image.newImage(frame, true);
+			interpreter.location(image, -1.0);
+			CircleObservation[] truths = is.getTruePositions();
+			Sphero[] spheros = interpreter.getSpheros();
+			for (int t = 0; t < spheros.length; t++) {
+				if (!spheros[t].isObserved() || spheros[t].getObservationTime() != frame.getTimestamp())
+					continue;
+				observations++;
+				// The track should be nearest to its own ball
+				CvPoint center = spheros[t].getCenter();
+				int nearest = 0;
+				for (int b = 1; b < truths.length; b++)
+					if (StaticMethods.dist(center.x(), center.y(), truths[b].x, truths[b].y) < StaticMethods.dist(
+							center.x(), center.y(), truths[nearest].x, truths[nearest].y))
+						nearest = b;
+				if (nearest != t)
+					swaps++;
+			}
+			image.release();
+			frame = is.nextFrame();
+		}
+		System.out.println(observations + "/" + (frames * colors.length) + " observed, " + swaps
+				+ " on another ball, association mean " + interpreter.getMeanAssociationTime() + " ms, max "
+				+ interpreter.getMaxAssociationTime() + " ms");
+		interpreter.release();
+		image.dispose();
+		is.exit();
+	}
 }
@@ -16,6 +16,7 @@ import javax.swing.JTextArea;
 import main.Constant;
 import main.Sphero;
 import main.SpheroExperiment;
+import main.StaticMethods;
 
 import webcam.Ground;
 import webcam.Image;
@@ -154,7 +155,8 @@ public class ScreenCanvasFrame {
 					+ Math.round(sphero.getVelocity() * 10.0) / 10.0 + " cm/s" + "\n" + "Color sphero: " + sphero.getColor() + "\n";
 		if (ground != null)
 			text += "Color ground: " + ground.getColor() + "\n";
-		text += "frame rate: " + Math.round(1000 / frameRate) + "f/s" + "\n" + "State: " + states + "\n" + "Experiment state: " + app.getExperimentState()
+		text += "frame rate: " + Math.round(1000 / frameRate) + "f/s" + " / latency: "
+				+ (StaticMethods.monotonicMillis() - image.getTimestamp()) + " ms" + "\n" + "State: " + states + "\n" + "Experiment state: " + app.getExperimentState()
 				+ "\n" + "Human: " + human + "\tComputer: " + computer + "\tShared: " + shared;
 		textInfo.setText(text);
 	}
@@ -168,10 +170,20 @@ public class ScreenCanvasFrame {
 	 */
 	public void refreshImage(Command human, Command computer, Command shared) {
 		image.drawObservation(sphero, ground, brooks, human, computer, shared, goals);
-		frame.showImage(image.getDrawing());
+		IplImage drawing = image.getDrawing();
+		if (drawing != null)
+			frame.showImage(drawing);
 		changeText(human, computer, shared);
 	}
 
+	/**
+	 * @return if the canvas is visible and not minimized, otherwise there is
+	 *         no need to draw on the image
+	 */
+	public boolean isShowing() {
+		return frame.isVisible() && (frame.getExtendedState() & JFrame.ICONIFIED) == 0;
+	}
+
 	/**
 	 * Refresh the image in the canvas
 	 */
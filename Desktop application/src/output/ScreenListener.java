@@ -180,7 +180,9 @@ public class ScreenListener implements ChangeListener, ActionListener, MouseList
 	@Override
 	public void mouseClicked(MouseEvent e) {
 		if (scf.isState(goalState)) {
-			goals.addGoal(e.getX(), e.getY());
+			// The screen shows the image, goals are in coordinates of the
+			// complete frame
+			goals.addGoal(e.getX() + image.getOffset().x(), e.getY() + image.getOffset().y());
 			scf.refreshImage();
 		}
 	}
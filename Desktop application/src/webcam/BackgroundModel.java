@@ -0,0 +1,211 @@
+package webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.IPL_DEPTH_8U;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_BGR2HSV;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_INTER_AREA;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_INTER_LINEAR;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_INTER_NN;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvCvtColor;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvResize;
+
+import main.Constant;
+import main.StaticMethods;
+
+import com.googlecode.javacv.cpp.opencv_core.CvSize;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+import com.googlecode.javacv.cpp.opencv_video.BackgroundSubtractorMOG2;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of the background model of the ground. The model is updated
+ *                 with a downscaled copy of the frames and only when
+ *                 Constant.BACKGROUND_EVERY_FRAMES frames or, whichever comes
+ *                 first, Constant.BACKGROUND_EVERY_MS ms have passed. The
+ *                 learning rate grows with the number of skipped frames, such
+ *                 that the model adapts as fast as when every frame is used.
+ *                 The background and foreground are scaled back to the size
+ *                 of the frames when they are asked for.
+ */
+public class BackgroundModel {
+
+	private BackgroundSubtractorMOG2 bg;
+	private double scale;
+	private int everyFrames;
+	private long everyMs;
+	private int skippedFrames;
+	private long lastUpdate;
+	private boolean updated, backgroundValid, foregroundValid;
+	private CvSize size;
+	private IplImage small, smallForeground, smallBackground;
+	private IplImage background, foreground;
+
+	/**
+	 * Initializes the model with the cadence of Constant
+	 */
+	public BackgroundModel() {
+		this(Constant.BACKGROUND_SCALE, Constant.BACKGROUND_EVERY_FRAMES, Constant.BACKGROUND_EVERY_MS);
+	}
+
+	/**
+	 * @param scale
+	 *            factor by which the frames are scaled before they are used
+	 * @param everyFrames
+	 *            the model is updated once so many frames are offered since
+	 *            the last update
+	 * @param everyMs
+	 *            the model is also updated once so many ms have passed since
+	 *            the last update, even if fewer frames are offered. 0 to only
+	 *            count frames.
+	 */
+	public BackgroundModel(double scale, int everyFrames, long everyMs) {
+		setCadence(scale, everyFrames, everyMs);
+		reset();
+	}
+
+	/**
+	 * @param scale
+	 *            factor by which the frames are scaled before they are used
+	 * @param everyFrames
+	 *            the model is updated once so many frames are offered since
+	 *            the last update
+	 * @param everyMs
+	 *            the model is also updated once so many ms have passed since
+	 *            the last update, even if fewer frames are offered. 0 to only
+	 *            count frames.
+	 */
+	public void setCadence(double scale, int everyFrames, long everyMs) {
+		if (this.scale != Math.min(1.0, scale))
+			release();
+		this.scale = Math.min(1.0, scale);
+		this.everyFrames = Math.max(1, everyFrames);
+		this.everyMs = Math.max(0, everyMs);
+	}
+
+	/**
+	 * Forgets everything that is learned
+	 */
+	public void reset() {
+		bg = new BackgroundSubtractorMOG2();
+		skippedFrames = 0;
+		lastUpdate = Long.MIN_VALUE;
+		updated = false;
+		backgroundValid = false;
+		foregroundValid = false;
+	}
+
+	/**
+	 * Offers a frame to the model, which is only used if it is time for an
+	 * update
+	 *
+	 * @param img
+	 *            bgr frame
+	 * @param timestamp
+	 *            capture time of the frame
+	 * @return if the model is updated with this frame
+	 */
+	public boolean offer(IplImage img, long timestamp) {
+		if (size == null || size.width() != img.width() || size.height() != img.height()) {
+			// The model only works for one size
+			release();
+			reset();
+			allocate(img);
+		}
+		skippedFrames++;
+		boolean frameDue = skippedFrames >= everyFrames;
+		// Whichever of the two is due first triggers the update
+		boolean timeDue = everyMs > 0 && (lastUpdate == Long.MIN_VALUE || timestamp - lastUpdate >= everyMs);
+		if (updated && !frameDue && !timeDue)
+			return false;
+		// Frames that are skipped count in the learning rate
+		double rate = Math.min(1.0, Constant.IMAGE_BACKGROUND_SUBTRACTION_FILTER * skippedFrames);
+		IplImage input = img;
+		if (small != null) {
+			cvResize(img, small, CV_INTER_AREA);
+			input = small;
+		}
+		bg.apply(input, smallForeground, rate);
+		skippedFrames = 0;
+		lastUpdate = timestamp;
+		updated = true;
+		backgroundValid = false;
+		foregroundValid = false;
+		return true;
+	}
+
+	/**
+	 * Offers a frame that is captured now
+	 */
+	public boolean offer(IplImage img) {
+		return offer(img, StaticMethods.monotonicMillis());
+	}
+
+	private void allocate(IplImage img) {
+		size = new CvSize(img.width(), img.height());
+		background = NativeMemory.createImage("BackgroundModel", size, IPL_DEPTH_8U, 3, false);
+		foreground = NativeMemory.createImage("BackgroundModel", size, IPL_DEPTH_8U, 1, false);
+		if (scale < 1.0) {
+			CvSize smallSize = new CvSize(Math.max(1, (int) Math.round(img.width() * scale)), Math.max(1,
+					(int) Math.round(img.height() * scale)));
+			small = NativeMemory.createImage("BackgroundModel", smallSize, IPL_DEPTH_8U, 3, false);
+			smallForeground = NativeMemory.createImage("BackgroundModel", smallSize, IPL_DEPTH_8U, 1, false);
+			smallBackground = NativeMemory.createImage("BackgroundModel", smallSize, IPL_DEPTH_8U, 3, false);
+		} else {
+			small = null;
+			smallForeground = foreground;
+			smallBackground = background;
+		}
+	}
+
+	/**
+	 * @return hsb background in the size of the frames, it only changes when
+	 *         the model is updated. Null if the model is never updated.
+	 */
+	public IplImage getBackground() {
+		if (!updated)
+			return null;
+		if (!backgroundValid) {
+			bg.getBackgroundImage(smallBackground);
+			if (smallBackground != background)
+				cvResize(smallBackground, background, CV_INTER_LINEAR);
+			cvCvtColor(background, background, CV_BGR2HSV);
+			backgroundValid = true;
+		}
+		return background;
+	}
+
+	/**
+	 * @return foreground of the last update in the size of the frames. Null if
+	 *         the model is never updated.
+	 */
+	public IplImage getForeground() {
+		if (!updated)
+			return null;
+		if (!foregroundValid) {
+			if (smallForeground != foreground)
+				cvResize(smallForeground, foreground, CV_INTER_NN);
+			foregroundValid = true;
+		}
+		return foreground;
+	}
+
+	/**
+	 * Frees the buffers of the model
+	 */
+	public void release() {
+		if (size == null)
+			return;
+		NativeMemory.releaseImage(background);
+		NativeMemory.releaseImage(foreground);
+		if (scale < 1.0) {
+			NativeMemory.releaseImage(small);
+			NativeMemory.releaseImage(smallForeground);
+			NativeMemory.releaseImage(smallBackground);
+		}
+		size = null;
+		small = null;
+		smallForeground = null;
+		smallBackground = null;
+		background = null;
+		foreground = null;
+	}
+}
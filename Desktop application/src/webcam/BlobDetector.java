@@ -0,0 +1,136 @@
+package webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.CV_WHOLE_SEQ;
+import static com.googlecode.javacv.cpp.opencv_core.cvClearMemStorage;
+import static com.googlecode.javacv.cpp.opencv_core.cvCopy;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_CHAIN_APPROX_NONE;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_RETR_EXTERNAL;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvArcLength;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvContourArea;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvFindContours;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvMoments;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import main.CircleObservation;
+import main.Constant;
+import main.StaticMethods;
+
+import com.googlecode.javacpp.Loader;
+import com.googlecode.javacv.cpp.opencv_core.CvContour;
+import com.googlecode.javacv.cpp.opencv_core.CvMemStorage;
+import com.googlecode.javacv.cpp.opencv_core.CvPoint;
+import com.googlecode.javacv.cpp.opencv_core.CvRect;
+import com.googlecode.javacv.cpp.opencv_core.CvSeq;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+import com.googlecode.javacv.cpp.opencv_imgproc.CvMoments;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of a detector that looks for Sphero as a blob of about its
+ *                 size in the mask. A blob should be at least
+ *                 Constant.BLOB_MIN_CIRCULARITY round, its centroid is
+ *                 computed from its moments and its radius from its area.
+ */
+public class BlobDetector implements SpheroDetector {
+
+	private CvMemStorage storage;
+	private IplImage scratch;
+	private List<CircleObservation> found;
+	private CvRect roi;
+	private CvPoint origin;
+	private CvMoments moments;
+	// Header that cvFindContours points at the first contour of every frame
+	private CvSeq first;
+
+	public BlobDetector() {
+		storage = NativeMemory.createStorage("BlobDetector", false);
+		scratch = null;
+		found = new ArrayList<CircleObservation>();
+		roi = new CvRect();
+		origin = new CvPoint(0, 0);
+		moments = new CvMoments();
+		first = new CvContour(null);
+	}
+
+	@Override
+	public CircleObservation detect(IplImage mask, Image img, int level, int left, int top, float radius,
+			CvPoint location, double maxDist) {
+		found.clear();
+		findAll(mask, img, level, left, top, radius, found);
+		CircleObservation circleObservation = null;
+		for (CircleObservation blob : found) {
+			double dist = StaticMethods.dist(blob.x, blob.y, location.x(), location.y());
+			if (dist < maxDist) {
+				circleObservation = blob;
+				maxDist = dist;
+			}
+		}
+		return circleObservation;
+	}
+
+	/**
+	 * Finds all blobs of about the size of Sphero in a thresholded window
+	 * 
+	 * @param mask
+	 *            thresholded window, it is not changed
+	 * @param img
+	 *            Image object
+	 * @param level
+	 *            of the pyramid of the window
+	 * @param left
+	 *            side of the window in the level
+	 * @param top
+	 *            side of the window in the level
+	 * @param radius
+	 *            expected radius at full resolution
+	 * @param blobs
+	 *            list that the circles are added to, in coordinates of the
+	 *            complete frame
+	 */
+	public void findAll(IplImage mask, Image img, int level, int left, int top, float radius,
+			List<CircleObservation> blobs) {
+		int scale = 1 << level;
+		double levelRadius = radius / scale;
+		double minArea = Math.PI * Math.pow(levelRadius / Constant.BLOB_RADIUS_RANGE, 2);
+		double maxArea = Math.PI * Math.pow(levelRadius * Constant.BLOB_RADIUS_RANGE, 2);
+		// Finding contours changes the image, the mask may still be needed by
+		// another detector
+		scratch = NativeMemory.scratch("BlobDetector", scratch, mask, roi);
+		cvCopy(mask, scratch);
+		cvFindContours(scratch, storage, first, Loader.sizeof(CvContour.class), CV_RETR_EXTERNAL,
+				CV_CHAIN_APPROX_NONE, origin);
+		CvSeq contour = first;
+
+		CvPoint offset = img.getOffset();
+		while (contour != null && !contour.isNull()) {
+			double area = Math.abs(cvContourArea(contour, CV_WHOLE_SEQ, 0));
+			double perimeter = cvArcLength(contour, CV_WHOLE_SEQ, 1);
+			if (area >= minArea && area <= maxArea && perimeter > 0.0
+					&& 4.0 * Math.PI * area / (perimeter * perimeter) >= Constant.BLOB_MIN_CIRCULARITY) {
+				cvMoments(contour, moments, 0);
+				if (moments.m00() > 0.0) {
+					float x = (float) ((moments.m10() / moments.m00() + left) * scale + offset.x());
+					float y = (float) ((moments.m01() / moments.m00() + top) * scale + offset.y());
+					blobs.add(new CircleObservation(x, y, (float) (Math.sqrt(area / Math.PI) * scale)));
+				}
+			}
+			contour = contour.h_next();
+		}
+		cvClearMemStorage(storage);
+	}
+
+	@Override
+	public String getName() {
+		return "Blob";
+	}
+
+	@Override
+	public void release() {
+		NativeMemory.releaseImage(scratch);
+		NativeMemory.releaseStorage(storage);
+		scratch = null;
+		storage = null;
+	}
+}
@@ -0,0 +1,221 @@
+package webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.CV_TERMCRIT_EPS;
+import static com.googlecode.javacv.cpp.opencv_core.CV_TERMCRIT_ITER;
+import static com.googlecode.javacv.cpp.opencv_core.cvConvertScale;
+import static com.googlecode.javacv.cpp.opencv_core.cvGetSubRect;
+import static com.googlecode.javacv.cpp.opencv_core.cvSplit;
+import static com.googlecode.javacv.cpp.opencv_core.cvTermCriteria;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_BGR2HSV;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_HIST_ARRAY;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvCalcBackProject;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvCalcHist;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvCamShift;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvCreateHist;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvCvtColor;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvGetMinMaxHistValue;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvReleaseHist;
+
+import main.CircleObservation;
+import main.Constant;
+
+import com.googlecode.javacv.cpp.opencv_core.CvBox2D;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+import com.googlecode.javacv.cpp.opencv_core.CvPoint;
+import com.googlecode.javacv.cpp.opencv_core.CvRect;
+import com.googlecode.javacv.cpp.opencv_core.CvTermCriteria;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+import com.googlecode.javacv.cpp.opencv_imgproc.CvConnectedComp;
+import com.googlecode.javacv.cpp.opencv_imgproc.CvHistogram;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of a tracker that keeps a hue and saturation histogram of
+ *                 Sphero. A window around the predicted location is back
+ *                 projected on the histogram and CamShift moves to the ball in
+ *                 it, without thresholds, edges or Hough circles. The
+ *                 confidence is the mean back projection in the ball, below
+ *                 Constant.CAMSHIFT_MIN_CONFIDENCE the tracker gives up and
+ *                 the detector has to find Sphero.
+ */
+public class CamShiftTracker {
+
+	private CvHistogram histogram;
+	private IplImage hsb, hue, saturation, backProjection;
+	private IplImage[] planes;
+	private CvRect hsbRoi, hueRoi, saturationRoi, backProjectionRoi, learnRect, search;
+	private CvMat window;
+	private CvTermCriteria criteria;
+	private CvConnectedComp comp;
+	private CvBox2D box;
+	private boolean learned;
+	private double confidence;
+	private long tracked, handedBack;
+
+	public CamShiftTracker() {
+		int[] sizes = { Constant.CAMSHIFT_HUE_BINS, Constant.CAMSHIFT_SATURATION_BINS };
+		// Hue of 8 bit hsb images goes up to 180
+		float[][] ranges = { { 0, 180 }, { 0, 256 } };
+		histogram = cvCreateHist(2, sizes, CV_HIST_ARRAY, ranges, 1);
+		planes = new IplImage[2];
+		hsbRoi = new CvRect();
+		hueRoi = new CvRect();
+		saturationRoi = new CvRect();
+		backProjectionRoi = new CvRect();
+		learnRect = new CvRect();
+		search = new CvRect();
+		window = new CvMat();
+		criteria = cvTermCriteria(CV_TERMCRIT_ITER | CV_TERMCRIT_EPS, Constant.CAMSHIFT_ITERATIONS,
+				Constant.CAMSHIFT_EPSILON);
+		comp = new CvConnectedComp();
+		box = new CvBox2D();
+		learned = false;
+		confidence = 0.0;
+		tracked = 0;
+		handedBack = 0;
+	}
+
+	/**
+	 * Converts a window of the frame into the hue and saturation planes
+	 *
+	 * @param rect
+	 *            window in coordinates of the frame
+	 */
+	private void planes(Image img, CvRect rect) {
+		int width = rect.width(), height = rect.height();
+		cvGetSubRect(img.getImg(), window, rect);
+		hsb = NativeMemory.scratch("CamShiftTracker", hsb, width, height, 3, hsbRoi);
+		hue = NativeMemory.scratch("CamShiftTracker", hue, width, height, 1, hueRoi);
+		saturation = NativeMemory.scratch("CamShiftTracker", saturation, width, height, 1, saturationRoi);
+		cvCvtColor(window, hsb, CV_BGR2HSV);
+		cvSplit(hsb, hue, saturation, null, null);
+		planes[0] = hue;
+		planes[1] = saturation;
+	}
+
+	/**
+	 * Learns the histogram of Sphero from the square inside the circle
+	 *
+	 * @param img
+	 *            Image object
+	 * @param circle
+	 *            of Sphero in coordinates of the complete frame
+	 */
+	public void learn(Image img, CircleObservation circle) {
+		double half = circle.radius * Math.sqrt(0.5);
+		int x0 = (int) Math.max(0, Math.round(circle.x - img.getOffset().x() - half));
+		int y0 = (int) Math.max(0, Math.round(circle.y - img.getOffset().y() - half));
+		int x1 = (int) Math.min(img.getSize().width(), Math.round(circle.x - img.getOffset().x() + half));
+		int y1 = (int) Math.min(img.getSize().height(), Math.round(circle.y - img.getOffset().y() + half));
+		if (x1 - x0 < 2 || y1 - y0 < 2)
+			return;
+		planes(img, learnRect.x(x0).y(y0).width(x1 - x0).height(y1 - y0));
+		cvCalcHist(planes, histogram, 0, null);
+		// The most common color of Sphero is projected to 255
+		float[] min = new float[1], max = new float[1];
+		cvGetMinMaxHistValue(histogram, min, max, null, null);
+		learned = max[0] > 0;
+		if (learned)
+			cvConvertScale(histogram.bins(), histogram.bins(), 255.0 / max[0], 0);
+	}
+
+	/**
+	 * @param img
+	 *            Image object
+	 * @param rect
+	 *            window in coordinates of the frame
+	 * @param location
+	 *            predicted center in coordinates of the complete frame
+	 * @param radius
+	 *            expected radius
+	 * @return the circle that CamShift converges to in coordinates of the
+	 *         complete frame, null if there is no histogram or the confidence
+	 *         is too low
+	 */
+	public CircleObservation track(Image img, CvRect rect, CvPoint location, float radius) {
+		if (!learned)
+			return null;
+		planes(img, rect);
+		backProjection = NativeMemory.scratch("CamShiftTracker", backProjection, rect.width(), rect.height(), 1,
+				backProjectionRoi);
+		cvCalcBackProject(planes, backProjection, histogram);
+
+		// The search starts at the ball around the predicted location
+		CvPoint offset = img.getOffset();
+		int r = Math.max(1, Math.round(radius));
+		int x0 = Math.max(0, location.x() - offset.x() - rect.x() - r);
+		int y0 = Math.max(0, location.y() - offset.y() - rect.y() - r);
+		int x1 = Math.min(rect.width(), location.x() - offset.x() - rect.x() + r);
+		int y1 = Math.min(rect.height(), location.y() - offset.y() - rect.y() + r);
+		if (x1 - x0 < 2 || y1 - y0 < 2) {
+			handedBack++;
+			return null;
+		}
+		cvCamShift(backProjection, search.x(x0).y(y0).width(x1 - x0).height(y1 - y0), criteria, comp, box);
+
+		// The box of a disc is as wide as the disc
+		double boxRadius = (box.size().width() + box.size().height()) / 4.0;
+		confidence = comp.area() / (255.0 * Math.PI * radius * radius);
+		if (confidence < Constant.CAMSHIFT_MIN_CONFIDENCE || boxRadius < radius / Constant.BLOB_RADIUS_RANGE
+				|| boxRadius > radius * Constant.BLOB_RADIUS_RANGE) {
+			handedBack++;
+			return null;
+		}
+		tracked++;
+		return new CircleObservation(box.center().x() + rect.x() + offset.x(), box.center().y() + rect.y()
+				+ offset.y(), (float) boxRadius);
+	}
+
+	/**
+	 * Forgets the histogram, such that the tracker waits for a new circle
+	 */
+	public void forget() {
+		learned = false;
+	}
+
+	/**
+	 * @return if there is a histogram to track with
+	 */
+	public boolean isLearned() {
+		return learned;
+	}
+
+	/**
+	 * @return mean back projection in the ball of the last track, 1.0 if all
+	 *         its pixels have the most common color of Sphero
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	/**
+	 * @return number of frames that Sphero is tracked with CamShift
+	 */
+	public long getTracked() {
+		return tracked;
+	}
+
+	/**
+	 * @return number of times the tracker gave up and the detector had to find
+	 *         Sphero
+	 */
+	public long getHandedBack() {
+		return handedBack;
+	}
+
+	/**
+	 * Frees the histogram and the buffers
+	 */
+	public void release() {
+		cvReleaseHist(histogram);
+		NativeMemory.releaseImage(hsb);
+		NativeMemory.releaseImage(hue);
+		NativeMemory.releaseImage(saturation);
+		NativeMemory.releaseImage(backProjection);
+		hsb = null;
+		hue = null;
+		saturation = null;
+		backProjection = null;
+		learned = false;
+	}
+}
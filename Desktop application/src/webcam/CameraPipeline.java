@@ -0,0 +1,129 @@
+package webcam;
+
+import java.util.logging.Level;
+
+import main.CircleObservation;
+import main.ObservationFusion;
+import main.Sphero;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of the vision pipeline of a single camera in its own thread.
+ *                 Sphero is tracked in the coordinates of the camera and
+ *                 every observation is mapped to arena coordinates and
+ *                 reported to the fusion.
+ */
+public class CameraPipeline extends Thread {
+
+	private int camera;
+	private InputStream is;
+	private Image image;
+	private Sphero sphero;
+	private Interpreter interpreter;
+	private ObservationFusion fusion;
+	private double[] homography;
+	private volatile boolean run;
+
+	/**
+	 * Initializes the pipeline of
+	 *
+	 * @param camera
+	 *            index of this camera in the fusion,
+	 * @param is
+	 *            inputstream of the camera,
+	 * @param homography
+	 *            row major 3x3 matrix from camera pixels to arena coordinates
+	 *            and the
+	 * @param fusion
+	 *            that combines the observations
+	 */
+	public CameraPipeline(int camera, InputStream is, double[] homography, ObservationFusion fusion) {
+		this.camera = camera;
+		this.is = is;
+		this.homography = homography;
+		this.fusion = fusion;
+		sphero = new Sphero();
+		interpreter = new Interpreter(sphero);
+		image = null;
+		run = true;
+		setName("CameraPipeline-" + camera);
+	}
+
+	@Override
+	public void run() {
+		while (run) {
+			Frame frame = is.nextFrame();
+			if (frame == null || frame.getImage() == null) {
+				// The stream has ended or is closed
+				if (!is.ready())
+					break;
+				// Do not spin while the stream has no frame
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					break;
+				}
+				continue;
+			}
+			if (image == null) {
+				image = new Image(frame.getImage());
+				// Nothing of a pipeline is shown
+				image.setHeadless(true);
+			}
+			image.newImage(frame, true);
+			interpreter.location(image, -1.0);
+			// Only report when Sphero is seen in this frame
+			if (sphero.isObserved() && sphero.getObservationTime() == frame.getTimestamp()) {
+				double x = sphero.getCenter().x(), y = sphero.getCenter().y(), radius = sphero.getRadius();
+				double[] center = toArena(x, y);
+				double[] edge = toArena(x + radius, y);
+				double arenaRadius = Math.sqrt((edge[0] - center[0]) * (edge[0] - center[0])
+						+ (edge[1] - center[1]) * (edge[1] - center[1]));
+				fusion.observe(camera, new CircleObservation((float) center[0], (float) center[1],
+						(float) arenaRadius), sphero.getColor(), frame.getTimestamp());
+			}
+			image.release();
+		}
+	}
+
+	/**
+	 * @param x
+	 *            coordinate in the camera image
+	 * @param y
+	 *            coordinate in the camera image
+	 * @return the point in arena coordinates
+	 */
+	private double[] toArena(double x, double y) {
+		double[] h = homography;
+		double w = h[6] * x + h[7] * y + h[8];
+		return new double[] { (h[0] * x + h[1] * y + h[2]) / w, (h[3] * x + h[4] * y + h[5]) / w };
+	}
+
+	/**
+	 * Stops the pipeline after the current frame, exits the inputstream and
+	 * frees the buffers of the image
+	 */
+	public void exit() {
+		run = false;
+		try {
+			join(1000);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		interpreter.exit();
+		is.exit();
+		if (isAlive())
+			main.SpheroExperiment.Log.log(Level.WARNING, getName() + " did not stop, leaking its image");
+		else if (image != null) {
+			image.dispose();
+			image = null;
+		}
+	}
+
+	/**
+	 * @return Sphero in coordinates of this camera
+	 */
+	public Sphero getSphero() {
+		return sphero;
+	}
+}
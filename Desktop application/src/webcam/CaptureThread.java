@@ -0,0 +1,189 @@
+package webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.cvCopy;
+import static com.googlecode.javacv.cpp.opencv_core.cvGetSize;
+
+import java.util.logging.Level;
+
+import main.Constant;
+import main.StaticMethods;
+
+import com.googlecode.javacv.FrameGrabber;
+import com.googlecode.javacv.FrameGrabber.Exception;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of a thread that keeps grabbing frames into a small ring of
+ *                 preallocated images. The consumer always gets the newest
+ *                 complete frame, older frames are dropped.
+ */
+class CaptureThread extends Thread {
+
+	private FrameGrabber grabber;
+	private IplImage[] ring;
+	private long[] timestamps, sequences;
+	private int latest, reading;
+	private boolean latestConsumed, running;
+	private long captured, dropped, stale;
+
+	/**
+	 * Initializes the ring buffer for frames of
+	 *
+	 * @param grabber
+	 *            that is already started
+	 */
+	public CaptureThread(FrameGrabber grabber) {
+		this.grabber = grabber;
+		ring = new IplImage[Constant.CAPTURE_BUFFERS];
+		timestamps = new long[Constant.CAPTURE_BUFFERS];
+		sequences = new long[Constant.CAPTURE_BUFFERS];
+		latest = -1;
+		reading = -1;
+		latestConsumed = false;
+		running = true;
+		captured = 0;
+		dropped = 0;
+		stale = 0;
+		setDaemon(true);
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			IplImage img = null;
+			long timestamp = 0;
+			try {
+				img = grabber.grab();
+				timestamp = StaticMethods.monotonicMillis();
+			} catch (Exception e) {
+				if (!running)
+					break;
+				e.printStackTrace();
+				// Exits from 10 to 19 means WebcamLaptop class exits
+				System.exit(11);
+			}
+			if (img != null)
+				publish(img, timestamp);
+		}
+	}
+
+	/**
+	 * Copies the grabbed image into a slot that is not used by the consumer and
+	 * makes it the newest frame
+	 *
+	 * @param img
+	 *            image from the grabber
+	 * @param timestamp
+	 *            of the moment the image was grabbed
+	 */
+	private void publish(IplImage img, long timestamp) {
+		int write;
+		synchronized (this) {
+			write = 0;
+			while (write == latest || write == reading)
+				write++;
+		}
+		// Copying happens outside of the lock, the consumer never touches this
+		// slot
+		if (ring[write] == null || ring[write].width() != img.width() || ring[write].height() != img.height()) {
+			if (ring[write] != null)
+				NativeMemory.releaseImage(ring[write]);
+			ring[write] = NativeMemory.createImage("CaptureThread", cvGetSize(img), img.depth(), img.nChannels(), false);
+		}
+		cvCopy(img, ring[write]);
+		timestamps[write] = timestamp;
+		synchronized (this) {
+			sequences[write] = captured;
+			if (latest != -1 && !latestConsumed)
+				dropped++;
+			latest = write;
+			latestConsumed = false;
+			captured++;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until there is a frame that was not returned before, such that
+	 * the same frame is never processed twice.
+	 *
+	 * @return the newest complete frame. It stays valid until the next call.
+	 */
+	public synchronized Frame nextFrame() {
+		if (latest != -1 && latestConsumed)
+			stale++;
+		while (running && (latest == -1 || latestConsumed)) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				main.SpheroExperiment.Log.log(Level.WARNING, "Interrupted while waiting for a new frame");
+				return null;
+			}
+		}
+		if (latest == -1 || latestConsumed)
+			return null;
+		reading = latest;
+		latestConsumed = true;
+		return new Frame(ring[reading], timestamps[reading], sequences[reading]);
+	}
+
+	/**
+	 * Forgets the newest frame, such that the next frame is captured after this
+	 * call
+	 */
+	public synchronized void flush() {
+		latest = -1;
+	}
+
+	/**
+	 * Stops grabbing and releases the ring buffer. If the thread is still
+	 * blocked in the grabber, the ring buffer is leaked instead, because the
+	 * thread may still copy into it.
+	 *
+	 * @return if the thread has stopped
+	 */
+	public boolean exit() {
+		synchronized (this) {
+			running = false;
+			notifyAll();
+		}
+		try {
+			join(1000);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		if (isAlive()) {
+			main.SpheroExperiment.Log.log(Level.WARNING, "Capture thread did not stop, leaking its ring buffer");
+			return false;
+		}
+		for (int i = 0; i < ring.length; i++) {
+			if (ring[i] != null)
+				NativeMemory.releaseImage(ring[i]);
+			ring[i] = null;
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of frames that are grabbed
+	 */
+	public synchronized long getCapturedFrames() {
+		return captured;
+	}
+
+	/**
+	 * @return number of frames that are overwritten before they were used
+	 */
+	public synchronized long getDroppedFrames() {
+		return dropped;
+	}
+
+	/**
+	 * @return number of times the consumer had to wait because it already had
+	 *         the newest frame
+	 */
+	public synchronized long getStaleFrames() {
+		return stale;
+	}
+}
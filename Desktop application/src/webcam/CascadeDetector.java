@@ -0,0 +1,65 @@
+package webcam;
+
+import main.CircleObservation;
+
+import com.googlecode.javacv.cpp.opencv_core.CvPoint;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of a detector that tries several detectors in order and
+ *                 uses the first circle that is found, such that a cheap
+ *                 detector can fall back on an expensive one. The number of
+ *                 circles that each detector finds is counted.
+ */
+public class CascadeDetector implements SpheroDetector {
+
+	private SpheroDetector[] detectors;
+	private long[] detections;
+
+	/**
+	 * @param detectors
+	 *            that are tried in this order
+	 */
+	public CascadeDetector(SpheroDetector... detectors) {
+		this.detectors = detectors;
+		detections = new long[detectors.length];
+	}
+
+	@Override
+	public CircleObservation detect(IplImage mask, Image img, int level, int left, int top, float radius,
+			CvPoint location, double maxDist) {
+		for (int i = 0; i < detectors.length; i++) {
+			CircleObservation circleObservation = detectors[i].detect(mask, img, level, left, top, radius, location,
+					maxDist);
+			if (circleObservation != null) {
+				detections[i]++;
+				return circleObservation;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param index
+	 *            of the detector
+	 * @return number of circles that are found by the detector
+	 */
+	public long getDetections(int index) {
+		return detections[index];
+	}
+
+	@Override
+	public String getName() {
+		String name = "";
+		for (SpheroDetector detector : detectors)
+			name += (name.isEmpty() ? "" : "+") + detector.getName();
+		return name;
+	}
+
+	@Override
+	public void release() {
+		for (SpheroDetector detector : detectors)
+			detector.release();
+	}
+}
@@ -0,0 +1,170 @@
+package webcam;
+
+import java.nio.ByteBuffer;
+
+import main.Constant;
+
+import com.googlecode.javacv.cpp.opencv_core.CvScalar;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of a threshold on hsb values that works directly on bgr
+ *                 images. The hsb box is compiled into a lookup table over
+ *                 bgr values quantized to Constant.THRESHOLD_LUT_BITS bits per
+ *                 channel, such that a mask is made in a single pass without
+ *                 converting the image to hsb. The table is only compiled
+ *                 again when the box moves more than
+ *                 Constant.THRESHOLD_LUT_TOLERANCE.
+ */
+public class ColorThreshold {
+
+	private byte[] lut, row, out;
+	private double[] low, high;
+	private int builds;
+
+	public ColorThreshold() {
+		lut = new byte[1 << (3 * Constant.THRESHOLD_LUT_BITS)];
+		row = new byte[0];
+		out = new byte[0];
+		low = null;
+		high = null;
+		builds = 0;
+	}
+
+	/**
+	 * Compiles the table for the box between low and high, if it differs
+	 * enough from the current box
+	 *
+	 * @param low
+	 *            hsb values
+	 * @param high
+	 *            hsb values
+	 * @return if the table is compiled again
+	 */
+	public boolean compile(CvScalar low, CvScalar high) {
+		if (this.low != null && !drifted(this.low, low) && !drifted(this.high, high))
+			return false;
+		this.low = new double[] { low.getVal(0), low.getVal(1), low.getVal(2) };
+		this.high = new double[] { high.getVal(0), high.getVal(1), high.getVal(2) };
+		int bits = Constant.THRESHOLD_LUT_BITS, shift = 8 - bits, levels = 1 << bits;
+		int half = shift > 0 ? 1 << (shift - 1) : 0;
+		int[] hsb = new int[3];
+		for (int b = 0; b < levels; b++) {
+			for (int g = 0; g < levels; g++) {
+				for (int r = 0; r < levels; r++) {
+					// The center of the bin stands for all its colors
+					toHsb((b << shift) + half, (g << shift) + half, (r << shift) + half, hsb);
+					boolean inside = true;
+					for (int c = 0; c < 3; c++)
+						inside = inside && hsb[c] >= this.low[c] && hsb[c] <= this.high[c];
+					lut[(b << (2 * bits)) | (g << bits) | r] = inside ? (byte) 255 : 0;
+				}
+			}
+		}
+		builds++;
+		return true;
+	}
+
+	private static boolean drifted(double[] current, CvScalar wanted) {
+		for (int c = 0; c < 3; c++)
+			if (Math.abs(current[c] - wanted.getVal(c)) > Constant.THRESHOLD_LUT_TOLERANCE)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Converts a bgr color to hsb like CV_BGR2HSV does for 8 bit images
+	 */
+	private static void toHsb(int b, int g, int r, int[] hsb) {
+		int max = Math.max(b, Math.max(g, r)), min = Math.min(b, Math.min(g, r));
+		double diff = max - min;
+		double h = 0.0;
+		if (diff > 0) {
+			if (max == r)
+				h = 60.0 * (g - b) / diff;
+			else if (max == g)
+				h = 120.0 + 60.0 * (b - r) / diff;
+			else
+				h = 240.0 + 60.0 * (r - g) / diff;
+			if (h < 0)
+				h += 360.0;
+		}
+		hsb[0] = (int) Math.round(h / 2.0);
+		hsb[1] = max == 0 ? 0 : (int) Math.round(255.0 * diff / max);
+		hsb[2] = max;
+	}
+
+	/**
+	 * Makes the mask of the compiled box
+	 *
+	 * @param bgr
+	 *            8 bit image with 3 channels
+	 * @param mask
+	 *            8 bit image with 1 channel of the same size
+	 */
+	public void apply(IplImage bgr, IplImage mask) {
+		apply(bgr, 0, 0, mask, 0, mask.height());
+	}
+
+	/**
+	 * Makes the mask of the compiled box for the rows y0 up to y1. Several
+	 * row ranges of the same images can be done at the same time, each with
+	 * its own buffers.
+	 *
+	 * @param row
+	 *            buffer of at least 3 times the width of the mask
+	 * @param out
+	 *            buffer of at least the width of the mask
+	 */
+	public void apply(IplImage bgr, IplImage mask, int y0, int y1, byte[] row, byte[] out) {
+		apply(bgr, 0, 0, mask, y0, y1, row, out);
+	}
+
+	/**
+	 * Makes the mask of the compiled box for a window of the bgr image
+	 *
+	 * @param bgr
+	 *            8 bit image with 3 channels
+	 * @param left
+	 *            side of the window in bgr
+	 * @param top
+	 *            side of the window in bgr
+	 * @param mask
+	 *            8 bit image with 1 channel with the size of the window
+	 * @param y0
+	 *            first row of the mask that is made
+	 * @param y1
+	 *            row of the mask after the last one that is made
+	 */
+	public void apply(IplImage bgr, int left, int top, IplImage mask, int y0, int y1) {
+		int width = mask.width();
+		if (out.length < width) {
+			row = new byte[width * 3];
+			out = new byte[width];
+		}
+		apply(bgr, left, top, mask, y0, y1, row, out);
+	}
+
+	private void apply(IplImage bgr, int left, int top, IplImage mask, int y0, int y1, byte[] row, byte[] out) {
+		int width = mask.width(), bits = Constant.THRESHOLD_LUT_BITS, shift = 8 - bits;
+		ByteBuffer src = bgr.getByteBuffer(), dst = mask.getByteBuffer();
+		for (int y = y0; y < y1; y++) {
+			src.position((top + y) * bgr.widthStep() + left * 3);
+			src.get(row, 0, width * 3);
+			for (int x = 0, i = 0; x < width; x++, i += 3) {
+				int b = (row[i] & 0xFF) >> shift, g = (row[i + 1] & 0xFF) >> shift, r = (row[i + 2] & 0xFF) >> shift;
+				out[x] = lut[(b << (2 * bits)) | (g << bits) | r];
+			}
+			dst.position(y * mask.widthStep());
+			dst.put(out, 0, width);
+		}
+	}
+
+	/**
+	 * @return number of times the table is compiled
+	 */
+	public int getBuilds() {
+		return builds;
+	}
+}
@@ -0,0 +1,264 @@
+package webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.CV_CMP_LT;
+import static com.googlecode.javacv.cpp.opencv_core.IPL_DEPTH_32F;
+import static com.googlecode.javacv.cpp.opencv_core.IPL_DEPTH_8U;
+import static com.googlecode.javacv.cpp.opencv_core.cvCmpS;
+import static com.googlecode.javacv.cpp.opencv_core.cvConvertScale;
+import static com.googlecode.javacv.cpp.opencv_core.cvInRangeS;
+import static com.googlecode.javacv.cpp.opencv_core.cvSub;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.logging.Level;
+
+import main.Constant;
+
+import com.googlecode.javacv.cpp.opencv_core.CvPoint;
+import com.googlecode.javacv.cpp.opencv_core.CvScalar;
+import com.googlecode.javacv.cpp.opencv_core.CvSize;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of the segmentation of Sphero and the walls with a depth
+ *                 image. The floor plane is learned from the first
+ *                 Constant.DEPTH_LEARN_FRAMES frames, after that a pixel is
+ *                 Sphero if it is a bit above the floor and wall if it is
+ *                 higher than Sphero can be.
+ */
+public class DepthSegmentation {
+
+	private double[] sums;
+	private int[] counts;
+	private int gridWidth, gridHeight, learnedFrames;
+	private double a, b, c;
+	private IplImage depth32, plane, height, ball, floor;
+	private CvPoint planeOffset;
+
+	public DepthSegmentation() {
+		reset();
+	}
+
+	/**
+	 * Forgets the floor plane and all buffers
+	 */
+	public void reset() {
+		sums = null;
+		counts = null;
+		learnedFrames = 0;
+		planeOffset = null;
+		release();
+	}
+
+	/**
+	 * Segments a new depth image, or learns the floor from it if it is not
+	 * learned yet
+	 *
+	 * @param depth
+	 *            16 bit depth image in mm
+	 * @param offset
+	 *            of the depth image in the complete frame
+	 * @return if the masks are computed for this depth image
+	 */
+	public boolean segment(IplImage depth, CvPoint offset) {
+		if (learnedFrames < Constant.DEPTH_LEARN_FRAMES) {
+			learn(depth, offset);
+			if (learnedFrames == Constant.DEPTH_LEARN_FRAMES)
+				fitPlane();
+			return false;
+		}
+		allocate(depth, offset);
+		cvConvertScale(depth, depth32, 1.0, 0.0);
+		// Height above the floor, the camera looks down on the floor
+		cvSub(plane, depth32, height, null);
+		cvInRangeS(height, new CvScalar(Constant.DEPTH_MIN_HEIGHT, 0, 0, 0), new CvScalar(
+				Constant.DEPTH_BALL_MAX_HEIGHT, 0, 0, 0), ball);
+		// Unknown depth is far above the floor, so it is never floor or ball
+		cvCmpS(height, Constant.DEPTH_BALL_MAX_HEIGHT, floor, CV_CMP_LT);
+		return true;
+	}
+
+	/**
+	 * Adds the depth on a coarse grid to the average depth
+	 */
+	private void learn(IplImage depth, CvPoint offset) {
+		int step = Constant.DEPTH_SAMPLE_STEP;
+		if (sums == null) {
+			gridWidth = depth.width() / step;
+			gridHeight = depth.height() / step;
+			sums = new double[gridWidth * gridHeight];
+			counts = new int[gridWidth * gridHeight];
+			planeOffset = new CvPoint(offset.x(), offset.y());
+		}
+		if (depth.width() / step != gridWidth || depth.height() / step != gridHeight
+				|| offset.x() != planeOffset.x() || offset.y() != planeOffset.y()) {
+			// The image changed while learning, start over
+			reset();
+			learn(depth, offset);
+			return;
+		}
+		ShortBuffer buffer = depth.getShortBuffer();
+		int rowShorts = depth.widthStep() / 2;
+		for (int gy = 0; gy < gridHeight; gy++) {
+			for (int gx = 0; gx < gridWidth; gx++) {
+				int value = buffer.get(gy * step * rowShorts + gx * step) & 0xFFFF;
+				if (value > 0) {
+					sums[gy * gridWidth + gx] += value;
+					counts[gy * gridWidth + gx]++;
+				}
+			}
+		}
+		learnedFrames++;
+	}
+
+	/**
+	 * Fits the plane depth = a * x + b * y + c through the learned grid. The
+	 * first estimate is the plane through three grid points that most other
+	 * points lie on, such that the walls, which can be a third of the image,
+	 * do not pull it up. Least squares through the points within
+	 * Constant.DEPTH_MIN_HEIGHT of the plane refines it.
+	 */
+	private void fitPlane() {
+		int step = Constant.DEPTH_SAMPLE_STEP;
+		int samples = 0;
+		double[] xs = new double[counts.length], ys = new double[counts.length], zs = new double[counts.length];
+		for (int gy = 0; gy < gridHeight; gy++) {
+			for (int gx = 0; gx < gridWidth; gx++) {
+				int i = gy * gridWidth + gx;
+				if (counts[i] == 0)
+					continue;
+				xs[samples] = planeOffset.x() + gx * step;
+				ys[samples] = planeOffset.y() + gy * step;
+				zs[samples] = sums[i] / counts[i];
+				samples++;
+			}
+		}
+		if (!estimatePlane(xs, ys, zs, samples)) {
+			main.SpheroExperiment.Log.log(Level.WARNING, "Could not fit the floor plane, learning again");
+			reset();
+			return;
+		}
+		for (int iteration = 0; iteration < Constant.DEPTH_PLANE_ITERATIONS; iteration++) {
+			double sxx = 0, sxy = 0, syy = 0, sx = 0, sy = 0, n = 0, sxz = 0, syz = 0, sz = 0;
+			for (int i = 0; i < samples; i++) {
+				double x = xs[i], y = ys[i], z = zs[i];
+				if (Math.abs(z - (a * x + b * y + c)) > Constant.DEPTH_MIN_HEIGHT)
+					continue;
+				sxx += x * x;
+				sxy += x * y;
+				syy += y * y;
+				sx += x;
+				sy += y;
+				n++;
+				sxz += x * z;
+				syz += y * z;
+				sz += z;
+			}
+			// Solve the normal equations with Cramer's rule
+			double det = sxx * (syy * n - sy * sy) - sxy * (sxy * n - sy * sx) + sx * (sxy * sy - syy * sx);
+			if (n < 3 || Math.abs(det) < 1e-9) {
+				main.SpheroExperiment.Log.log(Level.WARNING, "Could not fit the floor plane, learning again");
+				reset();
+				return;
+			}
+			a = (sxz * (syy * n - sy * sy) - sxy * (syz * n - sy * sz) + sx * (syz * sy - syy * sz)) / det;
+			b = (sxx * (syz * n - sz * sy) - sxz * (sxy * n - sy * sx) + sx * (sxy * sz - syz * sx)) / det;
+			c = (sxx * (syy * sz - sy * syz) - sxy * (sxy * sz - syz * sx) + sxz * (sxy * sy - syy * sx)) / det;
+		}
+		main.SpheroExperiment.Log.log(Level.INFO, "Floor plane: depth = " + a + " * x + " + b + " * y + " + c);
+	}
+
+	/**
+	 * Sets a, b and c to the plane through three random points that has the
+	 * most points within Constant.DEPTH_MIN_HEIGHT, out of
+	 * Constant.DEPTH_PLANE_TRIALS tries
+	 *
+	 * @return if a plane is found
+	 */
+	private boolean estimatePlane(double[] xs, double[] ys, double[] zs, int samples) {
+		if (samples < 3)
+			return false;
+		// The same grid gives the same plane
+		Random random = new Random(samples);
+		int best = 0;
+		for (int trial = 0; trial < Constant.DEPTH_PLANE_TRIALS; trial++) {
+			int i = random.nextInt(samples), j = random.nextInt(samples), k = random.nextInt(samples);
+			// Normal of the plane through the three points
+			double ux = xs[j] - xs[i], uy = ys[j] - ys[i], uz = zs[j] - zs[i];
+			double vx = xs[k] - xs[i], vy = ys[k] - ys[i], vz = zs[k] - zs[i];
+			double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+			if (Math.abs(nz) < 1e-9)
+				continue;
+			double pa = -nx / nz, pb = -ny / nz, pc = zs[i] - pa * xs[i] - pb * ys[i];
+			int inliers = 0;
+			for (int p = 0; p < samples; p++)
+				if (Math.abs(zs[p] - (pa * xs[p] + pb * ys[p] + pc)) <= Constant.DEPTH_MIN_HEIGHT)
+					inliers++;
+			if (inliers > best) {
+				best = inliers;
+				a = pa;
+				b = pb;
+				c = pc;
+			}
+		}
+		return best >= 3;
+	}
+
+	/**
+	 * Allocates the buffers and computes the depth of the floor for every
+	 * pixel, only if the size or offset changed
+	 */
+	private void allocate(IplImage depth, CvPoint offset) {
+		if (plane != null && plane.width() == depth.width() && plane.height() == depth.height()
+				&& offset.x() == planeOffset.x() && offset.y() == planeOffset.y())
+			return;
+		release();
+		CvSize size = new CvSize(depth.width(), depth.height());
+		depth32 = NativeMemory.createImage("DepthSegmentation", size, IPL_DEPTH_32F, 1, false);
+		plane = NativeMemory.createImage("DepthSegmentation", size, IPL_DEPTH_32F, 1, false);
+		height = NativeMemory.createImage("DepthSegmentation", size, IPL_DEPTH_32F, 1, false);
+		ball = NativeMemory.createImage("DepthSegmentation", size, IPL_DEPTH_8U, 1, false);
+		floor = NativeMemory.createImage("DepthSegmentation", size, IPL_DEPTH_8U, 1, false);
+		planeOffset = new CvPoint(offset.x(), offset.y());
+		FloatBuffer buffer = plane.getFloatBuffer();
+		int rowFloats = plane.widthStep() / 4;
+		for (int y = 0; y < plane.height(); y++)
+			for (int x = 0; x < plane.width(); x++)
+				buffer.put(y * rowFloats + x, (float) (a * (x + offset.x()) + b * (y + offset.y()) + c));
+	}
+
+	private void release() {
+		IplImage[] buffers = { depth32, plane, height, ball, floor };
+		for (IplImage buffer : buffers)
+			if (buffer != null)
+				NativeMemory.releaseImage(buffer);
+		depth32 = null;
+		plane = null;
+		height = null;
+		ball = null;
+		floor = null;
+	}
+
+	/**
+	 * @return if the floor plane is known
+	 */
+	public boolean isLearned() {
+		return learnedFrames >= Constant.DEPTH_LEARN_FRAMES;
+	}
+
+	/**
+	 * @return mask of the pixels that are Sphero height above the floor
+	 */
+	public IplImage getBallMask() {
+		return ball;
+	}
+
+	/**
+	 * @return mask of the pixels that are lower than the walls
+	 */
+	public IplImage getFloorMask() {
+		return floor;
+	}
+}
@@ -0,0 +1,16 @@
+package webcam;
+
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ */
+public interface DepthStream {
+
+	/**
+	 * @return 16 bit depth image in mm that belongs to the last image of the
+	 *         inputstream, 0 where the depth is unknown. Null if there is no
+	 *         depth.
+	 */
+	public IplImage getDepth();
+}
@@ -0,0 +1,172 @@
+package webcam;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import main.CircleObservation;
+import main.Sphero;
+import main.StaticMethods;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of a comparison of detectors on the same frames. Every
+ *                 detector gets its own Sphero, Interpreter and Image, and all
+ *                 of them process a frame at the same time before the next
+ *                 frame is read. The latency of the Interpreter, the detection
+ *                 rate and, for the synthetic arena, the error of the center
+ *                 are kept per detector.
+ */
+public class DetectorEvaluation {
+
+	/**
+	 * Tracking with one detector
+	 */
+	private static class Lane implements Callable<Void> {
+
+		private SpheroDetector detector;
+		private Sphero sphero;
+		private Interpreter interpreter;
+		private Image image;
+		private Frame frame;
+		private CircleObservation truth;
+		private long[] latencies;
+		private int frames, detected, truths;
+		private double error;
+
+		private Lane(SpheroDetector detector, int frames) {
+			this.detector = detector;
+			sphero = new Sphero();
+			interpreter = new Interpreter(sphero);
+			interpreter.setDetector(detector);
+			image = null;
+			latencies = new long[frames];
+			this.frames = 0;
+			detected = 0;
+			truths = 0;
+			error = 0.0;
+		}
+
+		@Override
+		public Void call() {
+			if (image == null) {
+				image = new Image(frame.getImage());
+				image.setHeadless(true);
+			}
+			image.newImage(frame, true);
+			long start = System.nanoTime();
+			interpreter.location(image, -1.0);
+			if (frames == latencies.length)
+				latencies = Arrays.copyOf(latencies, 2 * frames + 1);
+			latencies[frames++] = System.nanoTime() - start;
+			// Only a circle that is found in this frame counts
+			if (sphero.isObserved() && sphero.getObservationTime() == frame.getTimestamp()) {
+				detected++;
+				if (truth != null) {
+					error += StaticMethods.dist(sphero.getCenter().x(), sphero.getCenter().y(), truth.x, truth.y);
+					truths++;
+				}
+			}
+			image.release();
+			return null;
+		}
+
+		/**
+		 * @param p
+		 *            between 0 and 1
+		 * @return latency in ms that p of the frames do not exceed
+		 */
+		private double percentile(double p) {
+			if (frames == 0)
+				return 0.0;
+			long[] sorted = Arrays.copyOf(latencies, frames);
+			Arrays.sort(sorted);
+			int index = Math.max(0, (int) Math.ceil(p * frames) - 1);
+			return sorted[index] / 1000000.0;
+		}
+	}
+
+	private SpheroDetector[] detectors;
+	private List<Lane> lanes;
+
+	/**
+	 * @param detectors
+	 *            that are compared, each one should be a new instance
+	 */
+	public DetectorEvaluation(SpheroDetector... detectors) {
+		this.detectors = detectors;
+		lanes = new ArrayList<Lane>();
+	}
+
+	/**
+	 * Lets all detectors track Sphero in the frames of the stream. Another
+	 * run continues with the state and numbers of the earlier runs.
+	 *
+	 * @param is
+	 *            stream of frames, if it is a WebcamSynthetic the true
+	 *            position of Sphero is used to compute the error
+	 * @param frames
+	 *            maximum number of frames
+	 */
+	public void run(InputStream is, int frames) {
+		if (lanes.isEmpty())
+			for (SpheroDetector detector : detectors)
+				lanes.add(new Lane(detector, frames));
+		ExecutorService executor = Executors.newFixedThreadPool(lanes.size());
+		try {
+			for (int i = 0; i < frames; i++) {
+				Frame frame = is.nextFrame();
+				if (frame == null || frame.getImage() == null)
+					break;
+				CircleObservation truth = is instanceof WebcamSynthetic ? ((WebcamSynthetic) is).getTruePosition()
+						: null;
+				for (Lane lane : lanes) {
+					lane.frame = frame;
+					lane.truth = truth;
+				}
+				// The frame is only replaced when all detectors are done
+				for (Future<Void> future : executor.invokeAll(lanes))
+					future.get();
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return latency percentiles, detection rate and mean error of the center
+	 *         per detector
+	 */
+	public String report() {
+		String report = "";
+		for (Lane lane : lanes) {
+			report += String.format("%s: %d frames, latency p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, "
+					+ "detected %.1f%%, mean error %.2f px\n", lane.detector.getName(), lane.frames,
+					lane.percentile(0.5), lane.percentile(0.9), lane.percentile(0.99),
+					lane.frames > 0 ? 100.0 * lane.detected / lane.frames : 0.0,
+					lane.truths > 0 ? lane.error / lane.truths : 0.0);
+		}
+		return report;
+	}
+
+	/**
+	 * Stops the interpreters and frees the images and the detectors
+	 */
+	public void release() {
+		for (Lane lane : lanes) {
+			lane.interpreter.exit();
+			if (lane.image != null)
+				lane.image.dispose();
+		}
+		lanes.clear();
+	}
+}
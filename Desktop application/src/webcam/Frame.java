@@ -0,0 +1,93 @@
+package webcam;
+
+import com.googlecode.javacv.cpp.opencv_core.CvPoint;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of an image from an inputstream together with the moment it
+ *                 was captured
+ */
+public class Frame {
+
+	private IplImage image, original;
+	private long timestamp, sequence;
+	private CvPoint offset;
+
+	/**
+	 * Initializes a frame with
+	 *
+	 * @param image
+	 *            that is captured,
+	 * @param timestamp
+	 *            in milliseconds of StaticMethods.monotonicMillis() and
+	 * @param sequence
+	 *            number of the frame in the inputstream
+	 */
+	public Frame(IplImage image, long timestamp, long sequence) {
+		this(image, timestamp, sequence, new CvPoint(0, 0), image);
+	}
+
+	/**
+	 * Initializes a frame that is a region of a larger image
+	 *
+	 * @param image
+	 *            region that is cut out,
+	 * @param timestamp
+	 *            in milliseconds of StaticMethods.monotonicMillis(),
+	 * @param sequence
+	 *            number of the frame in the inputstream,
+	 * @param offset
+	 *            of the top left corner of the region in the original image
+	 *            and the
+	 * @param original
+	 *            image
+	 */
+	public Frame(IplImage image, long timestamp, long sequence, CvPoint offset, IplImage original) {
+		this.image = image;
+		this.timestamp = timestamp;
+		this.sequence = sequence;
+		this.offset = offset;
+		this.original = original;
+	}
+
+	/**
+	 * @return the captured image
+	 */
+	public IplImage getImage() {
+		return image;
+	}
+
+	/**
+	 * @return the complete image, equal to getImage() if no region is cut out
+	 */
+	public IplImage getOriginal() {
+		return original;
+	}
+
+	/**
+	 * @return position of the top left corner of the image in the original
+	 *         image
+	 */
+	public CvPoint getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return capture time in milliseconds of StaticMethods.monotonicMillis()
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return number of the frame in the inputstream
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public String toString() {
+		return "Frame - sequence: " + sequence + ", timestamp: " + timestamp;
+	}
+}
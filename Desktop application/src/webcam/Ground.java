@@ -28,7 +28,7 @@ import com.googlecode.javacv.cpp.opencv_core.IplImage;
  */
 public class Ground {
 
-	private CvMemStorage storage = CvMemStorage.create();
+	private CvMemStorage storage = NativeMemory.createStorage("Ground", false);
 	private CvSeq ground = null;
 	private CvRect boundingBox = null;
 	private CvScalar[] colors;
@@ -76,13 +76,15 @@ public class Ground {
 			CvScalar high = new CvScalar(Math.min(Constant.COLOR_MAX, h + Constant.GROUND_HUE_SEARCH_RANGE), Math.min(
 					Constant.COLOR_MAX, s + Constant.SATURNATION_SEARCH_RANGE), Math.min(Constant.COLOR_MAX, b
 					+ Constant.BRIGHTNESS_SEARCH_RANGE), 0.0);
-			IplImage threshold = img.getBackground(low, high);
+			// The walls are higher than the floor in the depth image
+			IplImage threshold = img.hasDepth() ? img.getDepthThreshold(false) : img.getBackground(low, high);
 //			cvSaveImage("thres.png", threshold);
 
 			// Find contours in the thresholded image
 			ground = new CvContour(null);
+			// Contours are shifted to coordinates of the complete frame
 			cvFindContours(threshold, storage, ground, Loader.sizeof(CvContour.class), CV_RETR_TREE,
-					CV_CHAIN_APPROX_SIMPLE, cvPoint(0, 0));
+					CV_CHAIN_APPROX_SIMPLE, cvPoint(img.getOffset().x(), img.getOffset().y()));
 
 			// The contour that sphero is in defines the borders of the ground
 			surroundingContour(sphero.getCenter());
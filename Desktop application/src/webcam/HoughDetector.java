@@ -0,0 +1,95 @@
+package webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.CV_WHOLE_SEQ;
+import static com.googlecode.javacv.cpp.opencv_core.cvClearMemStorage;
+import static com.googlecode.javacv.cpp.opencv_core.cvCvtSeqToArray;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_HOUGH_GRADIENT;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvCanny;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvHoughCircles;
+
+import main.CircleObservation;
+import main.Constant;
+import main.StaticMethods;
+
+import com.googlecode.javacpp.FloatPointer;
+import com.googlecode.javacv.cpp.opencv_core.CvMemStorage;
+import com.googlecode.javacv.cpp.opencv_core.CvPoint;
+import com.googlecode.javacv.cpp.opencv_core.CvRect;
+import com.googlecode.javacv.cpp.opencv_core.CvSeq;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of a detector that looks for Sphero with Hough circles on
+ *                 the edges of the mask. The circles are read at once into a
+ *                 buffer that only grows.
+ */
+public class HoughDetector implements SpheroDetector {
+
+	private CvMemStorage storage;
+	private IplImage edges;
+	private CvRect roi;
+	private FloatPointer circleBuffer;
+	private float[] circleValues;
+
+	public HoughDetector() {
+		storage = NativeMemory.createStorage("HoughDetector", false);
+		edges = null;
+		roi = new CvRect();
+		circleBuffer = null;
+		circleValues = new float[0];
+	}
+
+	@Override
+	public CircleObservation detect(IplImage mask, Image img, int level, int left, int top, float radius,
+			CvPoint location, double maxDist) {
+		int scale = 1 << level;
+		float levelRadius = radius / scale;
+		// Look for circles of size 'size'
+		int small = (int) Math.round(Math.max(0, levelRadius / Constant.CIRCLE_SEARCH_RANGE));
+		int big = (int) Math.round(Math.max(0, levelRadius * Constant.CIRCLE_SEARCH_RANGE));
+		edges = NativeMemory.scratch("HoughDetector", edges, mask, roi);
+		cvCanny(mask, edges, Constant.CANNY_LOWER_BOUND, Constant.CANNY_UPPER_BOUND, Constant.CANNY_KERNEL_SIZE);
+		CvSeq circles = cvHoughCircles(edges, storage, CV_HOUGH_GRADIENT, 1, Math.max(1, (int) levelRadius),
+				Constant.CIRCLE_CANNY_PARAMETER, 10, small, big);
+
+		// The circles are read at once as x, y and radius
+		int total = circles.total();
+		if (3 * total > circleValues.length) {
+			circleValues = new float[3 * total];
+			circleBuffer = new FloatPointer(3 * total);
+		}
+		if (total > 0) {
+			cvCvtSeqToArray(circles, circleBuffer, CV_WHOLE_SEQ);
+			circleBuffer.get(circleValues, 0, 3 * total);
+		}
+		cvClearMemStorage(storage);
+
+		// Use the circle that is closest to the earlier observation
+		CircleObservation circleObservation = null;
+		CvPoint offset = img.getOffset();
+		for (int i = 0; i < total; i++) {
+			float x = (circleValues[3 * i] + left) * scale + offset.x();
+			float y = (circleValues[3 * i + 1] + top) * scale + offset.y();
+			double dist = StaticMethods.dist(x, y, location.x(), location.y());
+			if (dist < maxDist) {
+				circleObservation = new CircleObservation(x, y, circleValues[3 * i + 2] * scale);
+				maxDist = dist;
+			}
+		}
+		return circleObservation;
+	}
+
+	@Override
+	public String getName() {
+		return "Hough";
+	}
+
+	@Override
+	public void release() {
+		NativeMemory.releaseImage(edges);
+		NativeMemory.releaseStorage(storage);
+		edges = null;
+		storage = null;
+	}
+}
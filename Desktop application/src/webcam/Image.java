@@ -3,15 +3,20 @@ package webcam;
 import static com.googlecode.javacv.cpp.opencv_core.CV_AA;
 import static com.googlecode.javacv.cpp.opencv_core.IPL_DEPTH_8U;
 import static com.googlecode.javacv.cpp.opencv_core.cvCircle;
-import static com.googlecode.javacv.cpp.opencv_core.cvCreateImage;
 import static com.googlecode.javacv.cpp.opencv_core.cvInRangeS;
 import static com.googlecode.javacv.cpp.opencv_imgproc.CV_BGR2GRAY;
 import static com.googlecode.javacv.cpp.opencv_imgproc.CV_BGR2HSV;
 import static com.googlecode.javacv.cpp.opencv_imgproc.CV_GAUSSIAN;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_INTER_NN;
 import static com.googlecode.javacv.cpp.opencv_imgproc.CV_MEDIAN;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_THRESH_BINARY;
 import static com.googlecode.javacv.cpp.opencv_imgproc.cvCvtColor;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvDilate;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_GAUSSIAN_5x5;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvPyrDown;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvResize;
 import static com.googlecode.javacv.cpp.opencv_imgproc.cvSmooth;
-import static com.googlecode.javacv.cpp.opencv_core.cvReleaseImage;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvThreshold;
 import static com.googlecode.javacv.cpp.opencv_core.cvCopy;
 import static com.googlecode.javacv.cpp.opencv_core.cvGetSize;
 import static com.googlecode.javacv.cpp.opencv_core.CV_RGB;
@@ -27,15 +32,16 @@ import java.util.LinkedList;
 
 import main.Constant;
 import main.Sphero;
+import main.StaticMethods;
 
 import com.googlecode.javacv.cpp.opencv_core.CvPoint;
 import com.googlecode.javacv.cpp.opencv_core.CvPoint3D32f;
+import com.googlecode.javacv.cpp.opencv_core.CvRect;
 import com.googlecode.javacv.cpp.opencv_core.CvPoint2D32f;
 import com.googlecode.javacv.cpp.opencv_core.CvScalar;
 import com.googlecode.javacv.cpp.opencv_core.CvSeq;
 import com.googlecode.javacv.cpp.opencv_core.CvSize;
 import com.googlecode.javacv.cpp.opencv_core.IplImage;
-import com.googlecode.javacv.cpp.opencv_video.BackgroundSubtractorMOG2;
 
 import control.BrooksControl;
 import control.Command;
@@ -51,9 +57,17 @@ public class Image {
 	private IplImage threshold, temp;
 	private IplImage hsbImg, hsbSmooth;
 	private IplImage gray;
-	private IplImage background, foreground;
+	private IplImage ballMask, floorMask;
 	private CvSize cs;
-	BackgroundSubtractorMOG2 bg;
+	private CvPoint offset;
+	private long timestamp, sequence;
+	private ImagePool pool;
+	private IntegralImage hsbIntegral, backgroundIntegral;
+	private ColorThreshold colorThreshold;
+	private StripeProcessor stripes;
+	private IplImage[] levels, foregroundMasks;
+	private boolean acquired, headless;
+	private BackgroundModel bg;
 
 	/**
 	 * Constructor
@@ -62,65 +76,191 @@ public class Image {
 	 *            is the original of this package
 	 */
 	public Image(IplImage image) {
-		bg = new BackgroundSubtractorMOG2();
+		bg = new BackgroundModel();
+		// Every image of the pool is released with the frame
+		pool = new ImagePool("Image", true);
+		hsbIntegral = new IntegralImage(pool);
+		backgroundIntegral = new IntegralImage(pool);
+		colorThreshold = new ColorThreshold();
+		stripes = null;
+		levels = new IplImage[Constant.PYRAMID_MAX_LEVEL + 1];
+		foregroundMasks = new IplImage[Constant.PYRAMID_MAX_LEVEL + 1];
+		acquired = false;
+		headless = false;
 		newImage(image, false);
 	}
 
+	/**
+	 * @param frame
+	 *            that should be wrapped, its capture time is remembered
+	 * @param subtractBackground
+	 *            if the background model should be updated
+	 */
+	public void newImage(Frame frame, boolean subtractBackground) {
+		newImage(frame.getImage(), subtractBackground, frame.getTimestamp(), frame.getSequence(), frame.getOffset());
+	}
+
 	/**
 	 * @param image
-	 *            that should be wrapped
+	 *            that should be wrapped. It is stamped with the current time.
 	 */
 	public void newImage(IplImage image, boolean subtractBackground) {
-		threshold = null;
-		temp = null;
+		newImage(image, subtractBackground, StaticMethods.monotonicMillis(), -1, new CvPoint(0, 0));
+	}
+
+	private void newImage(IplImage image, boolean subtractBackground, long timestamp, long sequence, CvPoint offset) {
+		// The previous frame is not released by everyone
+		if (acquired)
+			release();
+		acquired = true;
+		this.timestamp = timestamp;
+		this.sequence = sequence;
+		this.offset = offset;
+		ballMask = null;
+		floorMask = null;
 		cs = cvGetSize(image);
-		img = cvCreateImage(cs, image.depth(), image.nChannels());
-		drawing = cvCreateImage(cs, image.depth(), image.nChannels());
-		background = cvCreateImage(cs, image.depth(), image.nChannels());
-		foreground = cvCreateImage(cs, image.depth(), 1);
-		gray = cvCreateImage(cs, IPL_DEPTH_8U, 1);
+		// Buffers of the previous frame are reused, the other images are
+		// only computed when they are asked for
+		img = pool.acquire(cs, image.depth(), image.nChannels());
 		cvCopy(image, img);
-		cvCopy(image, drawing);
-		toHsb();
+		// The model decides itself if it is time for an update
 		if (subtractBackground)
-			background();
+			bg.offer(img, timestamp);
 	}
 
-	private void toGray() {
-		temp = cvCreateImage(cs, IPL_DEPTH_8U, 1);
-		cvCvtColor(img, temp, CV_BGR2GRAY);
-		cvSmooth(temp, gray, CV_GAUSSIAN, Constant.SMALL_BLUR);
+	private IplImage toGray() {
+		if (gray == null) {
+			temp = pool.acquire(cs, IPL_DEPTH_8U, 1);
+			gray = pool.acquire(cs, IPL_DEPTH_8U, 1);
+			cvtColor(img, temp, CV_BGR2GRAY);
+			smooth(temp, gray, CV_GAUSSIAN, Constant.SMALL_BLUR);
+		}
+		return gray;
+	}
+
+	private IplImage toHsb() {
+		if (hsbImg == null) {
+			hsbImg = pool.acquire(cs, IPL_DEPTH_8U, 3);
+			cvtColor(img, hsbImg, CV_BGR2HSV);
+		}
+		return hsbImg;
 	}
 
-	private void toHsb() {
-		hsbImg = cvCreateImage(cs, IPL_DEPTH_8U, 3);
-		hsbSmooth = cvCreateImage(cs, IPL_DEPTH_8U, 3);
-		cvCvtColor(img, hsbImg, CV_BGR2HSV);
-		cvSmooth(hsbImg, hsbSmooth, CV_GAUSSIAN, Constant.SMALL_BLUR);
+	private IplImage toHsbSmooth() {
+		if (hsbSmooth == null) {
+			hsbSmooth = pool.acquire(cs, IPL_DEPTH_8U, 3);
+			smooth(toHsb(), hsbSmooth, CV_GAUSSIAN, Constant.SMALL_BLUR);
+		}
+		return hsbSmooth;
 	}
 
-	private void background() {
-		bg.apply(img, foreground, Constant.IMAGE_BACKGROUND_SUBTRACTION_FILTER);
-		bg.getBackgroundImage(background);
-		cvCvtColor(background, background, CV_BGR2HSV);
+	/**
+	 * @return copy of the image to draw on, null if nothing is drawn
+	 */
+	private IplImage toDrawing() {
+		if (headless)
+			return null;
+		if (drawing == null) {
+			drawing = pool.acquire(img);
+			cvCopy(img, drawing);
+		}
+		return drawing;
+	}
+
+	/**
+	 * @return hsb background, or the frame itself as long as the model is not
+	 *         updated
+	 */
+	private IplImage toBackground() {
+		IplImage background = bg.getBackground();
+		if (background == null || background.width() != cs.width() || background.height() != cs.height())
+			return toHsbSmooth();
 		// cvSaveImage("thres.png", background);
+		return background;
 	}
 
 	/**
-	 * Releases all the images that are used in this class
+	 * Gives all the images of this frame back to the pool, such that the next
+	 * frame can reuse them
 	 */
 	public void release() {
-		cvReleaseImage(img);
-		cvReleaseImage(drawing);
-		if (threshold != null)
-			cvReleaseImage(threshold);
-		if (temp != null)
-			cvReleaseImage(temp);
-		cvReleaseImage(hsbImg);
-		cvReleaseImage(hsbSmooth);
-		cvReleaseImage(gray);
-		cvReleaseImage(background);
-		cvReleaseImage(foreground);
+		if (!acquired)
+			return;
+		acquired = false;
+		pool.release(img);
+		pool.release(drawing);
+		pool.release(threshold);
+		pool.release(temp);
+		pool.release(hsbImg);
+		pool.release(hsbSmooth);
+		pool.release(gray);
+		hsbIntegral.release();
+		backgroundIntegral.release();
+		for (int i = 1; i < levels.length; i++) {
+			pool.release(levels[i]);
+			levels[i] = null;
+		}
+		for (int i = 0; i < foregroundMasks.length; i++) {
+			pool.release(foregroundMasks[i]);
+			foregroundMasks[i] = null;
+		}
+		drawing = null;
+		threshold = null;
+		temp = null;
+		hsbImg = null;
+		hsbSmooth = null;
+		gray = null;
+	}
+
+	/**
+	 * @param threads
+	 *            number of threads that convert, blur and threshold the
+	 *            images in stripes. 1 or less processes the images on the
+	 *            calling thread.
+	 */
+	public void setParallelism(int threads) {
+		if (stripes != null)
+			stripes.shutdown();
+		stripes = threads > 1 ? new StripeProcessor(threads) : null;
+	}
+
+	private void cvtColor(IplImage src, IplImage dst, int code) {
+		if (stripes != null)
+			stripes.cvtColor(src, dst, code);
+		else
+			cvCvtColor(src, dst, code);
+	}
+
+	private void smooth(IplImage src, IplImage dst, int type, int size) {
+		if (stripes != null)
+			stripes.smooth(src, dst, type, size);
+		else
+			cvSmooth(src, dst, type, size);
+	}
+
+	/**
+	 * @param headless
+	 *            if nothing is shown, then the drawing copy is never made and
+	 *            all draw calls are ignored
+	 */
+	public void setHeadless(boolean headless) {
+		this.headless = headless;
+	}
+
+	/**
+	 * Frees all the images of the pool, after release()
+	 */
+	public void dispose() {
+		pool.clear();
+		bg.release();
+		setParallelism(1);
+	}
+
+	/**
+	 * @return pool that holds the images of this class
+	 */
+	public ImagePool getPool() {
+		return pool;
 	}
 
 	// --- Draw stuff ---
@@ -138,6 +278,8 @@ public class Image {
 	 */
 	public void drawObservation(Sphero sphero, Ground ground, BrooksControl brooks, Command c1, Command c2, Command c3, Goals goals) {
 		CvPoint spheroCenter = null, closestObstacle = null;
+		if (toDrawing() == null)
+			return;
 
 		spheroCenter = drawSpheroObservation(sphero);
 		drawGoals(goals);
@@ -161,7 +303,7 @@ public class Image {
 			radius = (int) s.getRadius();
 		}
 		if (spheroCenter != null && radius >= 1.0)
-			cvCircle(drawing, spheroCenter, radius, CvScalar.GREEN, 2, CV_AA, 0);
+			cvCircle(drawing, toLocal(spheroCenter), radius, CvScalar.GREEN, 2, CV_AA, 0);
 		return spheroCenter;
 	}
 
@@ -170,9 +312,10 @@ public class Image {
 	 *            Ground object
 	 */
 	public void drawGroundObservation(CvSeq ground) {
-		if (ground != null) {
+		if (ground != null && toDrawing() != null) {
 			if (!ground.isNull()) {
-				cvDrawContours(drawing, ground, CvScalar.RED, CV_RGB(0, 0, 0), 2, 1, CV_AA);
+				cvDrawContours(drawing, ground, CvScalar.RED, CV_RGB(0, 0, 0), 2, 1, CV_AA,
+						cvPoint(-offset.x(), -offset.y()));
 			}
 		}
 	}
@@ -187,7 +330,7 @@ public class Image {
 				CvPoint3D32f circle = goal.getPoint();
 				CvPoint center = cvPointFrom32f(new CvPoint2D32f(circle.x(), circle.y()));
 				int goalRadius = (int) circle.z();
-				cvCircle(drawing, center, goalRadius, CvScalar.MAGENTA, 2, CV_AA, 0);
+				cvCircle(drawing, toLocal(center), goalRadius, CvScalar.MAGENTA, 2, CV_AA, 0);
 			}
 		}
 	}
@@ -207,7 +350,7 @@ public class Image {
 			for (Command c : new LinkedList<Command>(Arrays.asList(c1, c2, c3))) {
 				if (c != null) {
 					CvPoint to = new CvPoint(s.getCenter().x() + (int) (c.getX() * 100.0), s.getCenter().y() + (int) (c.getY() * 100.0));
-					cvLine(drawing, s.getCenter(), to, CvScalar.BLUE, 2, 8, 0);
+					cvLine(drawing, toLocal(s.getCenter()), toLocal(to), CvScalar.BLUE, 2, 8, 0);
 				}
 			}
 		}
@@ -222,11 +365,20 @@ public class Image {
 	 *            to CvPoint
 	 */
 	public void drawLine(CvPoint c1, CvPoint c2) {
-		if (c1 != null && c2 != null) {
-			cvLine(drawing, c1, c2, CvScalar.GREEN, 2, 8, 0);
+		if (c1 != null && c2 != null && toDrawing() != null) {
+			cvLine(drawing, toLocal(c1), toLocal(c2), CvScalar.GREEN, 2, 8, 0);
 		}
 	}
 
+	/**
+	 * @param p
+	 *            point in coordinates of the complete frame
+	 * @return point in coordinates of this image
+	 */
+	private CvPoint toLocal(CvPoint p) {
+		return new CvPoint(p.x() - offset.x(), p.y() - offset.y());
+	}
+
 	// --- Getters ---
 	/**
 	 * @return size of the image
@@ -235,20 +387,90 @@ public class Image {
 		return cs;
 	}
 
+	/**
+	 * @return position of this image in the complete frame of the inputstream.
+	 *         All points that go in and out of this class are in coordinates
+	 *         of the complete frame.
+	 */
+	public CvPoint getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return capture time of the image in milliseconds of
+	 *         StaticMethods.monotonicMillis()
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return sequence number of the frame in the inputstream, -1 if unknown
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @param back
+	 *            if the table of the background is needed
+	 * @return summed area tables of the hsb image or the background. Computed
+	 *         during the first call for this frame.
+	 */
+	private IntegralImage toIntegral(boolean back) {
+		IntegralImage integral = back ? backgroundIntegral : hsbIntegral;
+		if (!integral.isComputed())
+			integral.compute(back ? toBackground() : toHsb());
+		return integral;
+	}
+
+	/**
+	 * @param x
+	 *            left side of the rectangle in coordinates of the complete
+	 *            frame
+	 * @param y
+	 *            top side of the rectangle
+	 * @param width
+	 *            of the rectangle
+	 * @param height
+	 *            of the rectangle
+	 * @param back
+	 *            if the background is used instead of the hsb image
+	 * @return mean hsb color of the part of the rectangle that is in this
+	 *         image, null if no part of it is
+	 */
+	public CvScalar getMean(int x, int y, int width, int height, boolean back) {
+		return toIntegral(back).mean(x - offset.x(), y - offset.y(), width, height);
+	}
+
+	/**
+	 * @return variance of the hsb color of the part of the rectangle that is
+	 *         in this image, null if no part of it is
+	 */
+	public CvScalar getVariance(int x, int y, int width, int height, boolean back) {
+		return toIntegral(back).variance(x - offset.x(), y - offset.y(), width, height);
+	}
+
 	/**
 	 * @param location
 	 * @param radius
 	 * @param back
-	 * @return color of the hsb image on the location, blurred with value
+	 * @return color of the hsb image on the location, averaged over a square
 	 *         corresponding to radius and possibly the background image
 	 */
 	public CvScalar getColor(CvPoint location, float radius, boolean back) {
+		int half = (int) (radius * Constant.COLOR_REGION_SCALE);
+		if (half >= 1)
+			return getMean(location.x() - half, location.y() - half, 2 * half + 1, 2 * half + 1, back);
 		ByteBuffer buffer;
 		if (back)
-			buffer = background.getByteBuffer();
+			buffer = toBackground().getByteBuffer();
 		else
-			buffer = hsbSmooth.getByteBuffer();
-		int index = location.y() * img.widthStep() + location.x() * img.nChannels();
+			buffer = toHsbSmooth().getByteBuffer();
+		int x = location.x() - offset.x(), y = location.y() - offset.y();
+		if (x < 0 || y < 0 || x >= cs.width() || y >= cs.height())
+			return null;
+		int index = y * img.widthStep() + x * img.nChannels();
 		CvScalar s = null;
 		if (index < buffer.limit())
 			s = new CvScalar(buffer.get(index) & 0xFF, buffer.get(index + 1) & 0xFF, buffer.get(index + 2) & 0xFF, 0);
@@ -258,7 +480,7 @@ public class Image {
 	/**
 	 * @param location
 	 * @param radius
-	 * @return color of the hsb image on the location, blurred with value
+	 * @return color of the hsb image on the location, averaged over a square
 	 *         corresponding to radius
 	 */
 	public CvScalar getColor(CvPoint location, float radius) {
@@ -269,15 +491,14 @@ public class Image {
 	 * @return hsb image
 	 */
 	public IplImage getHsb() {
-		return hsbSmooth;
+		return toHsbSmooth();
 	}
 
 	/**
-	 * @return gray image. Is computed during this call.
+	 * @return gray image. Is computed during the first call for this frame.
 	 */
 	public IplImage getGray() {
-		toGray();
-		return gray;
+		return toGray();
 	}
 
 	/**
@@ -287,26 +508,121 @@ public class Image {
 	 *            threshold for hsb image.
 	 * @param blur
 	 *            value before thresholding image.
-	 * @return thresholded hsb image. Is computed during this call.
+	 * @return thresholded hsb image. Is computed during this call, directly
+	 *         on the bgr image.
 	 */
 	public IplImage getThreshold(CvScalar low, CvScalar high, int blur) {
-		if (threshold != null)
-			cvReleaseImage(threshold);
-		threshold = null;
-		threshold = cvCreateImage(cs, 8, 1);
-		cvInRangeS(hsbImg, low, high, threshold);
+		return getThreshold(low, high, blur, 0, null);
+	}
+
+	/**
+	 * @param low
+	 *            threshold for hsb image.
+	 * @param high
+	 *            threshold for hsb image.
+	 * @param blur
+	 *            value before thresholding image.
+	 * @param level
+	 *            of the pyramid that is thresholded
+	 * @param window
+	 *            part of the level that is thresholded, in coordinates of the
+	 *            level. Null for the complete level.
+	 * @return thresholded window with the size of the window. Is computed
+	 *         during this call.
+	 */
+	public IplImage getThreshold(CvScalar low, CvScalar high, int blur, int level, CvRect window) {
+		IplImage src = getLevel(level);
+		if (window == null)
+			window = new CvRect(0, 0, src.width(), src.height());
+		thresholdBuffer(window.width(), window.height());
+		colorThreshold.compile(low, high);
+		if (stripes != null && threshold.width() == src.width() && threshold.height() == src.height())
+			stripes.threshold(colorThreshold, src, threshold);
+		else
+			colorThreshold.apply(src, window.x(), window.y(), threshold, 0, window.height());
 		if (blur > 0) {
 			blur = blur + (blur + 1) % 2;
-			cvSmooth(threshold, threshold, CV_MEDIAN, blur);
+			smooth(threshold, threshold, CV_MEDIAN, blur);
 		}
 		return threshold;
 	}
 
 	/**
-	 * @return image with drawings on it.
+	 * Makes sure the threshold buffer has the right size
+	 */
+	private void thresholdBuffer(int width, int height) {
+		if (threshold != null && (threshold.width() != width || threshold.height() != height)) {
+			pool.release(threshold);
+			threshold = null;
+		}
+		if (threshold == null)
+			threshold = pool.acquire(new CvSize(width, height), IPL_DEPTH_8U, 1);
+	}
+
+	/**
+	 * @param level
+	 *            of the pyramid, every level has half the size of the one
+	 *            before. At most Constant.PYRAMID_MAX_LEVEL.
+	 * @return bgr image of the level. Is computed during the first call for
+	 *         this frame.
+	 */
+	public IplImage getLevel(int level) {
+		level = Math.max(0, Math.min(Constant.PYRAMID_MAX_LEVEL, level));
+		if (level == 0)
+			return img;
+		if (levels[level] == null) {
+			IplImage larger = getLevel(level - 1);
+			levels[level] = pool.acquire(new CvSize((larger.width() + 1) / 2, (larger.height() + 1) / 2),
+					img.depth(), img.nChannels());
+			cvPyrDown(larger, levels[level], CV_GAUSSIAN_5x5);
+		}
+		return levels[level];
+	}
+
+	/**
+	 * Uses the segmentation of a depth image for this image
+	 * 
+	 * @param ballMask
+	 *            pixels that are Sphero height above the floor
+	 * @param floorMask
+	 *            pixels that are lower than the walls
+	 * @return if the masks fit on this image
+	 */
+	public boolean setDepth(IplImage ballMask, IplImage floorMask) {
+		if (ballMask == null || floorMask == null || ballMask.width() != cs.width()
+				|| ballMask.height() != cs.height())
+			return false;
+		this.ballMask = ballMask;
+		this.floorMask = floorMask;
+		return true;
+	}
+
+	/**
+	 * @return if there is a depth segmentation for this image
+	 */
+	public boolean hasDepth() {
+		return ballMask != null;
+	}
+
+	/**
+	 * @param ball
+	 *            if the mask of Sphero or of the floor is needed
+	 * @return copy of the depth segmentation, such that it can be changed.
+	 *         Null if there is no depth.
+	 */
+	public IplImage getDepthThreshold(boolean ball) {
+		if (!hasDepth())
+			return null;
+		thresholdBuffer(cs.width(), cs.height());
+		cvCopy(ball ? ballMask : floorMask, threshold);
+		return threshold;
+	}
+
+	/**
+	 * @return image with drawings on it, null if headless.
 	 */
 	public IplImage getDrawing() {
-		return drawing;
+		return toDrawing();
 	}
 
 	/**
@@ -322,12 +638,9 @@ public class Image {
 	 * @return background thresholded between low and high hsb values.
 	 */
 	public IplImage getBackground(CvScalar low, CvScalar high) {
-		if (threshold != null)
-			cvReleaseImage(threshold);
-		threshold = null;
-		threshold = cvCreateImage(cs, IPL_DEPTH_8U, 1);
-		cvInRangeS(background, low, high, threshold);
-		cvSmooth(threshold, threshold, CV_MEDIAN, Constant.SMALL_BLUR);
+		thresholdBuffer(cs.width(), cs.height());
+		cvInRangeS(toBackground(), low, high, threshold);
+		smooth(threshold, threshold, CV_MEDIAN, Constant.SMALL_BLUR);
 		return threshold;
 	}
 
@@ -335,20 +648,53 @@ public class Image {
 	 * @return background
 	 */
 	public IplImage getBackground() {
-		return background;
+		return toBackground();
 	}
 
 	/**
-	 * @return foreground
+	 * @return foreground of the last update of the background model, null if
+	 *         it is never updated
 	 */
 	public IplImage getForeground() {
-		return foreground;
+		return bg.getForeground();
+	}
+
+	/**
+	 * @param level
+	 *            of the pyramid
+	 * @return moving pixels of the foreground in the size of the level, shadows
+	 *         left out, dilated by Constant.FOREGROUND_DILATION pixels of the
+	 *         frame. Null if the background model is never updated.
+	 */
+	public IplImage getForegroundMask(int level) {
+		level = Math.max(0, Math.min(Constant.PYRAMID_MAX_LEVEL, level));
+		if (foregroundMasks[level] == null) {
+			IplImage foreground = bg.getForeground();
+			if (foreground == null || foreground.width() != cs.width() || foreground.height() != cs.height())
+				return null;
+			IplImage levelImg = getLevel(level);
+			IplImage mask = pool.acquire(cvGetSize(levelImg), IPL_DEPTH_8U, 1);
+			if (level == 0)
+				cvCopy(foreground, mask);
+			else
+				cvResize(foreground, mask, CV_INTER_NN);
+			// Shadows are 127 in the foreground
+			cvThreshold(mask, mask, 200, 255, CV_THRESH_BINARY);
+			int iterations = Constant.FOREGROUND_DILATION >> level;
+			cvDilate(mask, mask, null, Math.max(1, iterations));
+			foregroundMasks[level] = mask;
+		}
+		return foregroundMasks[level];
+	}
+
+	/**
+	 * @return model of the background, to change its cadence
+	 */
+	public BackgroundModel getBackgroundModel() {
+		return bg;
 	}
 
 	public void resetBackground() {
-		bg = null;
-		bg = new BackgroundSubtractorMOG2();
-		cvReleaseImage(background);
-		background = cvCreateImage(cs, IPL_DEPTH_8U, 1);
+		bg.reset();
 	}
 }
@@ -0,0 +1,146 @@
+package webcam;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import com.googlecode.javacv.cpp.opencv_core.CvSize;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of a pool of native images. Images that are released to the
+ *                 pool are handed out again when an image of the same size,
+ *                 depth and number of channels is acquired, such that frames
+ *                 of the same resolution do not allocate native memory. A
+ *                 pool of temporary images reports the images that are
+ *                 acquired in a frame and not released in it.
+ */
+public class ImagePool {
+
+	private String owner;
+	private boolean temporary;
+	private Map<String, LinkedList<IplImage>> free;
+	private long hits, misses, bytesHeld;
+
+	/**
+	 * @param owner
+	 *            name of the class that uses the pool, for NativeMemory
+	 */
+	public ImagePool(String owner) {
+		this(owner, false);
+	}
+
+	/**
+	 * @param owner
+	 *            name of the class that uses the pool, for NativeMemory
+	 * @param temporary
+	 *            if the images should be released in the frame in which they
+	 *            are acquired
+	 */
+	public ImagePool(String owner, boolean temporary) {
+		this.owner = owner;
+		this.temporary = temporary;
+		free = new HashMap<String, LinkedList<IplImage>>();
+		hits = 0;
+		misses = 0;
+		bytesHeld = 0;
+	}
+
+	/**
+	 * @param size
+	 *            of the image
+	 * @param depth
+	 *            of the image
+	 * @param channels
+	 *            of the image
+	 * @return an image from the pool, or a new one if there is none. Its
+	 *         content is undefined.
+	 */
+	public synchronized IplImage acquire(CvSize size, int depth, int channels) {
+		LinkedList<IplImage> images = free.get(key(size.width(), size.height(), depth, channels));
+		IplImage img;
+		if (images != null && !images.isEmpty()) {
+			hits++;
+			img = images.removeFirst();
+		} else {
+			misses++;
+			img = NativeMemory.createImage(owner, size, depth, channels, false);
+			bytesHeld += img.imageSize();
+		}
+		if (temporary)
+			NativeMemory.lent(img);
+		return img;
+	}
+
+	/**
+	 * @param like
+	 *            image with the size, depth and number of channels that is
+	 *            needed
+	 * @return an image from the pool, or a new one if there is none
+	 */
+	public IplImage acquire(IplImage like) {
+		return acquire(new CvSize(like.width(), like.height()), like.depth(), like.nChannels());
+	}
+
+	/**
+	 * Gives an image back to the pool. The image should not be used anymore by
+	 * the caller.
+	 *
+	 * @param img
+	 *            that was acquired from this pool, null is ignored
+	 */
+	public synchronized void release(IplImage img) {
+		if (img == null)
+			return;
+		if (temporary)
+			NativeMemory.returned(img);
+		String key = key(img.width(), img.height(), img.depth(), img.nChannels());
+		LinkedList<IplImage> images = free.get(key);
+		if (images == null) {
+			images = new LinkedList<IplImage>();
+			free.put(key, images);
+		}
+		images.addLast(img);
+	}
+
+	/**
+	 * Frees all the images that are in the pool. Images that are acquired but
+	 * not released are not freed.
+	 */
+	public synchronized void clear() {
+		for (LinkedList<IplImage> images : free.values()) {
+			for (IplImage img : images) {
+				bytesHeld -= img.imageSize();
+				NativeMemory.releaseImage(img);
+			}
+		}
+		free.clear();
+	}
+
+	private static String key(int width, int height, int depth, int channels) {
+		return width + "x" + height + "x" + depth + "x" + channels;
+	}
+
+	/**
+	 * @return number of times an image was reused
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of times a new image was allocated
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of bytes of all images that are allocated by this pool
+	 *         and not freed yet
+	 */
+	public synchronized long getBytesHeld() {
+		return bytesHeld;
+	}
+}
@@ -12,6 +12,12 @@ public interface InputStream {
 	 */
 	public IplImage nextImage();
 
+	/**
+	 * @return the next image from the inputstream together with its capture
+	 *         time and sequence number
+	 */
+	public Frame nextFrame();
+
 	/**
 	 * exits the inputstream
 	 */
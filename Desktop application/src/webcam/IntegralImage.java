@@ -0,0 +1,185 @@
+package webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.CV_32FC1;
+import static com.googlecode.javacv.cpp.opencv_core.IPL_DEPTH_32F;
+import static com.googlecode.javacv.cpp.opencv_core.IPL_DEPTH_64F;
+import static com.googlecode.javacv.cpp.opencv_core.IPL_DEPTH_8U;
+import static com.googlecode.javacv.cpp.opencv_core.cvLUT;
+import static com.googlecode.javacv.cpp.opencv_core.cvMerge;
+import static com.googlecode.javacv.cpp.opencv_core.cvSplit;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvIntegral;
+
+import java.nio.DoubleBuffer;
+
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+import com.googlecode.javacv.cpp.opencv_core.CvScalar;
+import com.googlecode.javacv.cpp.opencv_core.CvSize;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of the summed area tables of an hsb image. After they are
+ *                 computed the mean and variance of every channel over any
+ *                 rectangle is known with four lookups. Hue is a circle of
+ *                 180, so it has tables of its cosine and sine and is averaged
+ *                 as a direction: a red LED with hues on both sides of 0 has a
+ *                 mean near 0, not near 90.
+ */
+public class IntegralImage {
+
+	// Hue of 8 bit hsb images goes up to 180
+	private static final double HUE_TO_RADIANS = 2 * Math.PI / 180.0;
+	private static final CvMat COS, SIN;
+	static {
+		COS = CvMat.create(1, 256, CV_32FC1);
+		SIN = CvMat.create(1, 256, CV_32FC1);
+		for (int h = 0; h < 256; h++) {
+			COS.put(h, Math.cos(h * HUE_TO_RADIANS));
+			SIN.put(h, Math.sin(h * HUE_TO_RADIANS));
+		}
+	}
+
+	private ImagePool pool;
+	private IplImage sum, sqsum, hueSum;
+	private DoubleBuffer sumBuffer, sqsumBuffer, hueBuffer;
+	private int width, height, channels, stride, hueStride;
+
+	/**
+	 * @param pool
+	 *            that holds the tables
+	 */
+	public IntegralImage(ImagePool pool) {
+		this.pool = pool;
+		sum = null;
+		sqsum = null;
+		hueSum = null;
+	}
+
+	/**
+	 * Computes the tables of
+	 *
+	 * @param img
+	 *            8 bit hsb image
+	 */
+	public void compute(IplImage img) {
+		release();
+		width = img.width();
+		height = img.height();
+		channels = img.nChannels();
+		CvSize size = new CvSize(width + 1, height + 1), planeSize = new CvSize(width, height);
+		sum = pool.acquire(size, IPL_DEPTH_64F, channels);
+		sqsum = pool.acquire(size, IPL_DEPTH_64F, channels);
+		cvIntegral(img, sum, sqsum, null);
+
+		// Cosine and sine of the hue in two channels
+		IplImage hue = pool.acquire(planeSize, IPL_DEPTH_8U, 1);
+		IplImage cos = pool.acquire(planeSize, IPL_DEPTH_32F, 1);
+		IplImage sin = pool.acquire(planeSize, IPL_DEPTH_32F, 1);
+		IplImage direction = pool.acquire(planeSize, IPL_DEPTH_32F, 2);
+		cvSplit(img, hue, null, null, null);
+		cvLUT(hue, cos, COS);
+		cvLUT(hue, sin, SIN);
+		cvMerge(cos, sin, null, null, direction);
+		hueSum = pool.acquire(size, IPL_DEPTH_64F, 2);
+		cvIntegral(direction, hueSum, null, null);
+		pool.release(hue);
+		pool.release(cos);
+		pool.release(sin);
+		pool.release(direction);
+
+		sumBuffer = sum.getDoubleBuffer();
+		sqsumBuffer = sqsum.getDoubleBuffer();
+		hueBuffer = hueSum.getDoubleBuffer();
+		stride = sum.widthStep() / 8;
+		hueStride = hueSum.widthStep() / 8;
+	}
+
+	/**
+	 * @return if the tables are computed
+	 */
+	public boolean isComputed() {
+		return sum != null;
+	}
+
+	/**
+	 * @param x
+	 *            left side of the rectangle
+	 * @param y
+	 *            top side of the rectangle
+	 * @param w
+	 *            width of the rectangle
+	 * @param h
+	 *            height of the rectangle
+	 * @return mean per channel over the part of the rectangle that is in the
+	 *         image, null if no part of it is. The hue is the direction of the
+	 *         mean cosine and sine.
+	 */
+	public CvScalar mean(int x, int y, int w, int h) {
+		int[] r = clip(x, y, w, h);
+		if (r == null)
+			return null;
+		double area = (r[2] - r[0]) * (r[3] - r[1]);
+		CvScalar mean = new CvScalar(0.0, 0.0, 0.0, 0.0);
+		for (int c = 1; c < channels; c++)
+			mean.setVal(c, sum(sumBuffer, stride, channels, r, c) / area);
+		double hue = Math.atan2(sum(hueBuffer, hueStride, 2, r, 1), sum(hueBuffer, hueStride, 2, r, 0))
+				/ HUE_TO_RADIANS;
+		mean.setVal(0, hue < 0.0 ? hue + 180.0 : hue);
+		return mean;
+	}
+
+	/**
+	 * @return variance per channel over the part of the rectangle that is in
+	 *         the image, null if no part of it is. The variance of the hue is
+	 *         the circular variance in hue units.
+	 */
+	public CvScalar variance(int x, int y, int w, int h) {
+		int[] r = clip(x, y, w, h);
+		if (r == null)
+			return null;
+		double area = (r[2] - r[0]) * (r[3] - r[1]);
+		CvScalar variance = new CvScalar(0.0, 0.0, 0.0, 0.0);
+		for (int c = 1; c < channels; c++) {
+			double mean = sum(sumBuffer, stride, channels, r, c) / area;
+			variance.setVal(c, Math.max(0.0, sum(sqsumBuffer, stride, channels, r, c) / area - mean * mean));
+		}
+		double cos = sum(hueBuffer, hueStride, 2, r, 0) / area, sin = sum(hueBuffer, hueStride, 2, r, 1) / area;
+		double length = Math.max(1e-9, Math.min(1.0, Math.sqrt(cos * cos + sin * sin)));
+		variance.setVal(0, -2.0 * Math.log(length) / (HUE_TO_RADIANS * HUE_TO_RADIANS));
+		return variance;
+	}
+
+	private static double sum(DoubleBuffer table, int stride, int channels, int[] r, int c) {
+		return table.get(r[3] * stride + r[2] * channels + c) - table.get(r[1] * stride + r[2] * channels + c)
+				- table.get(r[3] * stride + r[0] * channels + c) + table.get(r[1] * stride + r[0] * channels + c);
+	}
+
+	/**
+	 * @return the rectangle clipped to the image as left, top, right and
+	 *         bottom, null if it is empty
+	 */
+	private int[] clip(int x, int y, int w, int h) {
+		if (sum == null)
+			return null;
+		int x0 = Math.max(0, x), y0 = Math.max(0, y);
+		int x1 = Math.min(width, x + w), y1 = Math.min(height, y + h);
+		if (x1 <= x0 || y1 <= y0)
+			return null;
+		return new int[] { x0, y0, x1, y1 };
+	}
+
+	/**
+	 * Gives the tables back to the pool
+	 */
+	public void release() {
+		pool.release(sum);
+		pool.release(sqsum);
+		pool.release(hueSum);
+		sum = null;
+		sqsum = null;
+		hueSum = null;
+		sumBuffer = null;
+		sqsumBuffer = null;
+		hueBuffer = null;
+	}
+}
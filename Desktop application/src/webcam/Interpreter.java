@@ -1,32 +1,19 @@
 package webcam;
 
-import static com.googlecode.javacv.cpp.opencv_core.IPL_DEPTH_8U;
-import static com.googlecode.javacv.cpp.opencv_core.cvClearMemStorage;
-import static com.googlecode.javacv.cpp.opencv_core.cvClearSeq;
-import static com.googlecode.javacv.cpp.opencv_core.cvCreateImage;
-import static com.googlecode.javacv.cpp.opencv_core.cvCreateMemStorage;
-import static com.googlecode.javacv.cpp.opencv_core.cvGetSeqElem;
-import static com.googlecode.javacv.cpp.opencv_core.cvPointFrom32f;
-import static com.googlecode.javacv.cpp.opencv_core.cvReleaseImage;
-import static com.googlecode.javacv.cpp.opencv_core.cvReleaseMemStorage;
-import static com.googlecode.javacv.cpp.opencv_imgproc.CV_HOUGH_GRADIENT;
-import static com.googlecode.javacv.cpp.opencv_imgproc.cvCanny;
-import static com.googlecode.javacv.cpp.opencv_imgproc.cvHoughCircles;
+import static com.googlecode.javacv.cpp.opencv_core.cvAnd;
+import static com.googlecode.javacv.cpp.opencv_core.cvGetSubRect;
 
 import java.util.Date;
 import java.util.logging.Level;
 
 import main.CircleObservation;
 import main.Constant;
-import main.StaticMethods;
 import main.Sphero;
 
-import com.googlecode.javacv.cpp.opencv_core.CvMemStorage;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
 import com.googlecode.javacv.cpp.opencv_core.CvPoint;
-import com.googlecode.javacv.cpp.opencv_core.CvPoint2D32f;
-import com.googlecode.javacv.cpp.opencv_core.CvPoint3D32f;
+import com.googlecode.javacv.cpp.opencv_core.CvRect;
 import com.googlecode.javacv.cpp.opencv_core.CvScalar;
-import com.googlecode.javacv.cpp.opencv_core.CvSeq;
 import com.googlecode.javacv.cpp.opencv_core.IplImage;
 
 /**
@@ -36,6 +23,32 @@ public class Interpreter {
 
 	Sphero sphero;
 	CvPoint spheroCenter, spheroNewCenter;
+	private SpheroDetector detector;
+	private CamShiftTracker camShift;
+	private boolean foregroundMask;
+	private IplImage moving;
+	private CvRect movingRoi;
+	private CvMat foregroundWindow;
+	private long movingDetections, stillDetections, stillSince;
+	// Decided once per frame: if Sphero stood still long enough to search
+	// outside the foreground, if the foreground is used and if a circle is
+	// found outside of it
+	private boolean searchStill, masked, foundStill;
+	// Time at which Sphero is lost, -1 while it is tracked and NEVER_SEEN
+	// until it is found for the first time
+	private static final long NEVER_SEEN = Long.MIN_VALUE;
+	private Reacquisition reacquisition;
+	// Last observation before Sphero is lost
+	private CvPoint lostCenter;
+	private float lostRadius;
+	private CvScalar lostColor, observedColor;
+	private long lostSince, observedAt;
+	private long reacquisitions, reacquisitionTime, maxReacquisitionTime;
+	// Kept for all frames, such that tracking does not allocate native
+	// memory
+	private CvRect trackWindow, refineWindow;
+	private CvScalar low, high;
+	private CvPoint coarse;
 
 	/**
 	 * Initializes this class with reference to
@@ -44,29 +57,31 @@ public class Interpreter {
 	 */
 	public Interpreter(Sphero sphero) {
 		this.sphero = sphero;
-	}
-
-	/**
-	 * Finds the best circle in an image with no further information
-	 * 
-	 * @param img Image object
-	 * @return the best circle
-	 */
-	private CircleObservation findSphero(Image img) {
-		CvMemStorage memHough = cvCreateMemStorage(0);
-		IplImage graySmooth = img.getGray();
-		int maxWindow = Math.max(img.getSize().width(), img.getSize().height());
-		CvSeq circles = cvHoughCircles(graySmooth, memHough, CV_HOUGH_GRADIENT, 1.0, maxWindow,
-				Constant.CIRCLE_CANNY_PARAMETER, Constant.CIRCLE_DETECTION_THRESHOLD, 5, maxWindow / 2);
-		CircleObservation circleObservation = null;
-		if (circles.total() > 0) {
-			CvPoint3D32f circle = new CvPoint3D32f(cvGetSeqElem(circles, 0));
-			circleObservation = new CircleObservation(circle.x(), circle.y(), circle.z());
-		}
-		cvClearSeq(circles);
-		cvClearMemStorage(memHough);
-		cvReleaseMemStorage(memHough);
-		return circleObservation;
+		lostSince = NEVER_SEEN;
+		reacquisitions = 0;
+		reacquisitionTime = 0;
+		maxReacquisitionTime = 0;
+		// Blobs are cheap, Hough circles are only needed if there is no
+		// round blob
+		detector = new CascadeDetector(new BlobDetector(), new HoughDetector());
+		camShift = null;
+		foregroundMask = false;
+		moving = null;
+		movingRoi = new CvRect();
+		foregroundWindow = new CvMat();
+		movingDetections = 0;
+		stillDetections = 0;
+		stillSince = -1;
+		searchStill = false;
+		masked = false;
+		foundStill = false;
+		trackWindow = new CvRect();
+		refineWindow = new CvRect();
+		low = new CvScalar(0.0, 0.0, 0.0, 0.0);
+		high = new CvScalar(0.0, 0.0, 0.0, 0.0);
+		coarse = new CvPoint();
+		reacquisition = new Reacquisition();
+		reacquisition.start();
 	}
 
 	/**
@@ -81,52 +96,248 @@ public class Interpreter {
 	private CircleObservation findSphero(Image img, CvPoint location, float radius, CvScalar hsb) {
 		// If sphero is not seen for a long time the earlier observation is
 		// useless
-		if (sphero.notSeenFor() > Constant.NOT_SEEN_FOR || !sphero.isObserved() || location == null || radius < 1.0
+		if (sphero.notSeenFor(img.getTimestamp()) > Constant.NOT_SEEN_FOR || !sphero.isObserved() || location == null || radius < 1.0
 				|| hsb == null) {
+			return reacquire(img);
+		}
+		// Search for sphero with valid and usefull information
+		else {
+			// Only a window around the predicted location is searched, it
+			// grows with the uncertainty of the prediction
+			CvPoint predicted = sphero.getPredictedCenter(img.getTimestamp());
+			if (predicted != null)
+				location = predicted;
+			double gate = radius * Constant.CIRCLE_NEAR + Constant.KALMAN_GATE_SIGMAS
+					* sphero.getPredictionUncertainty(img.getTimestamp());
+			boolean color = camShift != null && !img.hasDepth();
+			if (color && camShift.isLearned()) {
+				CvRect window = window(img, 0, location, gate + radius, trackWindow);
+				CircleObservation circleObservation = window != null ? camShift.track(img, window, location,
+						radius) : null;
+				if (circleObservation != null)
+					return circleObservation;
+				main.SpheroExperiment.Log.log(Level.FINE, "CamShift confidence " + camShift.getConfidence()
+						+ " is too low, the detector takes over");
+			}
+			CircleObservation circleObservation = track(img, location, radius, hsb, gate);
+			// The histogram is learned from the circles of the detector only,
+			// such that errors of CamShift do not add up
+			if (color && circleObservation != null)
+				camShift.learn(img, circleObservation);
+			return circleObservation;
+		}
+	}
+
+	/**
+	 * Looks for Sphero after it is lost. The complete frame is searched by the
+	 * reacquisition worker, meanwhile a window around the last observation is
+	 * searched in this thread.
+	 * 
+	 * @param img Image object
+	 * @return the circle that is found locally or by the worker, null if there
+	 *         is none yet
+	 */
+	private CircleObservation reacquire(Image img) {
+		long timestamp = img.getTimestamp();
+		if (lostSince == -1) {
 			main.SpheroExperiment.Log.log(Level.WARNING, "--- Didn't see Sphero for a long time ---");
+			lostSince = timestamp;
+			lostCenter = sphero.getCenter();
+			lostRadius = sphero.getRadius();
+			lostColor = sphero.getColor();
 			sphero.reset();
-			return findSphero(img);
+			if (camShift != null)
+				camShift.forget();
 		}
-		// Search for sphero with valid and usefull information
+		CircleObservation circleObservation = null;
+		if (lostCenter != null && lostRadius >= 1.0 && lostColor != null)
+			circleObservation = track(img, lostCenter, lostRadius, lostColor, lostRadius
+					* Constant.REACQUIRE_LOCAL_GATE);
+		if (circleObservation == null) {
+			circleObservation = reacquisition.poll();
+			if (circleObservation != null) {
+				// The worker searched an older frame without color, the
+				// color from before the loss is kept
+				observedAt = reacquisition.getPolledTimestamp();
+				observedColor = lostColor != null ? lostColor : color(img, circleObservation);
+				// It is not a detection in the foreground of this frame
+				masked = false;
+			}
+		}
+		if (circleObservation == null) {
+			// Sphero stands out of the floor in the depth image
+			reacquisition.offer(img.hasDepth() ? img.getDepthThreshold(true) : img.getGray(), img.getOffset(),
+					timestamp);
+			return null;
+		}
+		// Finding Sphero for the first time is not a reacquisition
+		if (lostSince == NEVER_SEEN)
+			main.SpheroExperiment.Log.log(Level.INFO, "Found Sphero");
 		else {
-			// Threshold image for colours: hue, saturnation, brightness
-			double h = hsb.getVal(0), s = hsb.getVal(1), b = hsb.getVal(2);
-			CvScalar low = new CvScalar(Math.max(Constant.COLOR_MIN, h - Constant.HUE_SEARCH_RANGE), Math.max(
-					Constant.COLOR_MIN, s - Constant.SATURNATION_SEARCH_RANGE), Math.max(Constant.COLOR_MIN, b
-					- Constant.BRIGHTNESS_SEARCH_RANGE), 0.0);
-			CvScalar high = new CvScalar(Math.min(Constant.COLOR_MAX, h + Constant.HUE_SEARCH_RANGE), Math.min(
-					Constant.COLOR_MAX, s + Constant.SATURNATION_SEARCH_RANGE), Math.min(Constant.COLOR_MAX, b
-					+ Constant.BRIGHTNESS_SEARCH_RANGE), 0.0);
-			int blury = (int) Math.round(radius) / 2;
-			IplImage temp = img.getThreshold(low, high, blury);
-
-			// Look for circles of size 'size'
-			CvMemStorage mem = cvCreateMemStorage(0);
-			int small = (int) Math.round(Math.max(0, radius / Constant.CIRCLE_SEARCH_RANGE));
-			int big = (int) Math.round(Math.max(0, radius * Constant.CIRCLE_SEARCH_RANGE));
-			IplImage edges = cvCreateImage(img.getSize(), IPL_DEPTH_8U, 1);
-			cvCanny(temp, edges, Constant.CANNY_LOWER_BOUND, Constant.CANNY_UPPER_BOUND, Constant.CANNY_KERNEL_SIZE);
-			CvSeq circles = cvHoughCircles(edges, mem, CV_HOUGH_GRADIENT, 1, (int) radius,
-					Constant.CIRCLE_CANNY_PARAMETER, 10, small, big);
+			long time = timestamp - lostSince;
+			reacquisitions++;
+			reacquisitionTime += time;
+			maxReacquisitionTime = Math.max(maxReacquisitionTime, time);
+			main.SpheroExperiment.Log.log(Level.INFO, "Reacquired Sphero after " + time + " ms");
+		}
+		reacquisition.cancel();
+		lostSince = -1;
+		lostCenter = null;
+		lostColor = null;
+		return circleObservation;
+	}
+
+	/**
+	 * @param img Image object
+	 * @param circleObservation circle that is found in an older frame
+	 * @return color of the circle in the current frame, the color of the LED
+	 *         if the circle is outside of it
+	 */
+	private static CvScalar color(Image img, CircleObservation circleObservation) {
+		CvScalar color = img.getColor(new CvPoint(Math.round(circleObservation.x), Math.round(circleObservation.y)),
+				circleObservation.radius);
+		return color != null ? color : new CvScalar(Constant.SPHERO_LED_HUE, Constant.SPHERO_LED_SATURATION,
+				Constant.SPHERO_LED_BRIGHTNESS, 0.0);
+	}
+
+	/**
+	 * Finds the circle with the color of Sphero in a window around a location
+	 * 
+	 * @param img Image object
+	 * @param location center of the window
+	 * @param radius Previous radius
+	 * @param hsb Previous color
+	 * @param gate maximum distance of the circle to the location
+	 * @return The best circle
+	 */
+	private CircleObservation track(Image img, CvPoint location, float radius, CvScalar hsb, double gate) {
+		// Threshold image for colours: hue, saturnation, brightness
+		bounds(hsb, low, high);
+		int blury = (int) Math.round(radius) / 2;
+		// Sphero is searched on the smallest level of the pyramid where it
+		// is still large enough
+		int level = img.hasDepth() ? 0 : pyramidLevel(radius);
+		CircleObservation circleObservation;
+		if (img.hasDepth()) {
+			IplImage temp = img.getDepthThreshold(true);
+			circleObservation = detector.detect(temp, img, 0, 0, 0, radius, location, gate);
+		} else {
+			CvRect window = window(img, level, location, gate + radius, trackWindow);
+			if (window == null)
+				return null;
+			IplImage temp = img.getThreshold(low, high, blury >> level, level, window);
 			// cvSaveImage("img//temp" + new Date().getTime() + ".png", temp);
+			circleObservation = detect(temp, img, level, window, radius, location, gate);
+		}
+		if (circleObservation == null || level == 0)
+			return circleObservation;
 
-			// Use the circle that is closest to the earlier observation
-			CircleObservation circleObservation = null;
-			double maxDist = Double.MAX_VALUE;
-			for (int i = 0; i < circles.total(); i++) {
-				CvPoint3D32f result = new CvPoint3D32f(cvGetSeqElem(circles, i));
-				CvPoint center = cvPointFrom32f(new CvPoint2D32f(result.x(), result.y()));
-				double dist = StaticMethods.distance(center, location);
-				if (dist < maxDist && dist < Constant.CIRCLE_NEAR * radius) {
-					circleObservation = new CircleObservation(result.x(), result.y(), result.z());
-					maxDist = dist;
-				}
-			}
-			cvReleaseImage(edges);
-			cvClearMemStorage(mem);
-			cvReleaseMemStorage(mem);
+		// Refine the circle in a small window at full resolution
+		coarse.x(Math.round(circleObservation.x)).y(Math.round(circleObservation.y));
+		CvRect window = window(img, 0, coarse, circleObservation.radius * Constant.PYRAMID_REFINE_SCALE
+				+ (1 << level), refineWindow);
+		if (window == null)
+			return circleObservation;
+		IplImage temp = img.getThreshold(low, high, blury, 0, window);
+		CircleObservation refined = detect(temp, img, 0, window, circleObservation.radius,
+				coarse, 2 << level);
+		return refined != null ? refined : circleObservation;
+	}
+
+	/**
+	 * Detects Sphero in the moving part of the thresholded window, if the
+	 * foreground mask is on, such that static edges of walls and floor do not
+	 * give circles. A Sphero that stands still becomes background, only after
+	 * it stands still for Constant.FOREGROUND_STILL_TIME the complete window is
+	 * searched when the moving part has no circle. That is decided once per
+	 * frame, such that the coarse and the refine window agree.
+	 * 
+	 * @param mask thresholded window
+	 * @param img Image object
+	 * @param level of the pyramid of the window
+	 * @param window in coordinates of the level
+	 * @param radius expected radius at full resolution
+	 * @param location earlier location in coordinates of the complete frame
+	 * @param maxDist maximum distance to location at full resolution
+	 * @return the circle in coordinates of the complete frame, null if there
+	 *         is none
+	 */
+	private CircleObservation detect(IplImage mask, Image img, int level, CvRect window, float radius,
+			CvPoint location, double maxDist) {
+		IplImage foreground = foregroundMask ? img.getForegroundMask(level) : null;
+		if (foreground != null) {
+			moving = NativeMemory.scratch("Interpreter", moving, mask, movingRoi);
+			cvAnd(mask, cvGetSubRect(foreground, foregroundWindow, window), moving, null);
+			CircleObservation circleObservation = detector.detect(moving, img, level, window.x(), window.y(),
+					radius, location, maxDist);
+			masked = true;
+			if (circleObservation != null || !searchStill)
+				return circleObservation;
+			circleObservation = detector.detect(mask, img, level, window.x(), window.y(), radius, location, maxDist);
+			if (circleObservation != null)
+				foundStill = true;
 			return circleObservation;
 		}
+		return detector.detect(mask, img, level, window.x(), window.y(), radius, location, maxDist);
+	}
+
+	/**
+	 * Sets the threshold bounds around a color
+	 * 
+	 * @param hsb color
+	 * @param low bound that is set
+	 * @param high bound that is set
+	 */
+	static void bounds(CvScalar hsb, CvScalar low, CvScalar high) {
+		int[] ranges = { Constant.HUE_SEARCH_RANGE, Constant.SATURNATION_SEARCH_RANGE,
+				Constant.BRIGHTNESS_SEARCH_RANGE };
+		for (int i = 0; i < 3; i++) {
+			low.setVal(i, Math.max(Constant.COLOR_MIN, hsb.getVal(i) - ranges[i]));
+			high.setVal(i, Math.min(Constant.COLOR_MAX, hsb.getVal(i) + ranges[i]));
+		}
+	}
+
+	/**
+	 * @param radius
+	 *            of Sphero at full resolution
+	 * @return the highest level of the pyramid where the radius is at least
+	 *         Constant.PYRAMID_MIN_RADIUS
+	 */
+	static int pyramidLevel(float radius) {
+		int level = 0;
+		while (level < Constant.PYRAMID_MAX_LEVEL && radius / (2 << level) >= Constant.PYRAMID_MIN_RADIUS)
+			level++;
+		return level;
+	}
+
+	/**
+	 * @param img
+	 *            Image object
+	 * @param level
+	 *            of the pyramid
+	 * @param center
+	 *            of the window in coordinates of the complete frame
+	 * @param half
+	 *            half the size of the window at full resolution
+	 * @param window
+	 *            that is set
+	 * @return window in coordinates of the level, clipped to the level. Null
+	 *         if it is empty.
+	 */
+	static CvRect window(Image img, int level, CvPoint center, double half, CvRect window) {
+		IplImage levelImg = img.getLevel(level);
+		int scale = 1 << level;
+		int x0 = (int) Math.floor((center.x() - img.getOffset().x() - half) / scale);
+		int y0 = (int) Math.floor((center.y() - img.getOffset().y() - half) / scale);
+		int x1 = (int) Math.ceil((center.x() - img.getOffset().x() + half) / scale);
+		int y1 = (int) Math.ceil((center.y() - img.getOffset().y() + half) / scale);
+		x0 = Math.max(0, x0);
+		y0 = Math.max(0, y0);
+		x1 = Math.min(levelImg.width(), x1);
+		y1 = Math.min(levelImg.height(), y1);
+		if (x1 - x0 < 3 || y1 - y0 < 3)
+			return null;
+		return window.x(x0).y(y0).width(x1 - x0).height(y1 - y0);
 	}
 
 	/**
@@ -140,16 +351,139 @@ public class Interpreter {
 		spheroNewCenter = null;
 		float radius = sphero.getRadius();
 		CvScalar color = sphero.getColor();
+		// The foreground mask loses a Sphero that stands still
+		if (sphero.isObserved() && sphero.getPixelSpeed() < Constant.FOREGROUND_STILL_SPEED) {
+			if (stillSince < 0)
+				stillSince = img.getTimestamp();
+		} else
+			stillSince = -1;
+		searchStill = stillSince >= 0 && img.getTimestamp() - stillSince >= Constant.FOREGROUND_STILL_TIME;
+		masked = false;
+		foundStill = false;
+		// A circle of the reacquisition worker is found in an older frame
+		observedAt = img.getTimestamp();
+		observedColor = null;
 		CircleObservation circleObservation = findSphero(img, spheroCenter, radius, color);
 		if (circleObservation != null) {
+			// The coarse and the refine window count as one detection
+			if (masked && foundStill)
+				stillDetections++;
+			else if (masked)
+				movingDetections++;
 			spheroNewCenter = new CvPoint(Math.round(circleObservation.x), Math.round(circleObservation.y));
 			float newRadius = circleObservation.radius;
-			CvScalar newHsbColor = img.getColor(spheroNewCenter, newRadius);
-			sphero.observe(spheroNewCenter, newRadius, newHsbColor, mmPerPx);
+			CvScalar newHsbColor = observedAt == img.getTimestamp() ? img.getColor(spheroNewCenter, newRadius)
+					: observedColor;
+			sphero.observe(spheroNewCenter, newRadius, newHsbColor, mmPerPx, observedAt);
 		} else {
 			System.out.print(".");
 		}
 		spheroCenter = null;
 		spheroNewCenter = null;
 	}
+
+	/**
+	 * @return if Sphero is lost, or not found yet, and searched for by the
+	 *         reacquisition worker
+	 */
+	public boolean isLost() {
+		return lostSince != -1;
+	}
+
+	/**
+	 * @return number of times Sphero is found again after it was lost
+	 */
+	public long getReacquisitions() {
+		return reacquisitions;
+	}
+
+	/**
+	 * @return average time in ms between losing Sphero and finding it again
+	 */
+	public double getMeanTimeToReacquire() {
+		return reacquisitions > 0 ? (double) reacquisitionTime / reacquisitions : 0.0;
+	}
+
+	/**
+	 * @return longest time in ms between losing Sphero and finding it again
+	 */
+	public long getMaxTimeToReacquire() {
+		return maxReacquisitionTime;
+	}
+
+	/**
+	 * Stops the reacquisition worker
+	 */
+	public void exit() {
+		reacquisition.exit();
+		detector.release();
+		if (camShift != null)
+			camShift.release();
+		NativeMemory.releaseImage(moving);
+		moving = null;
+	}
+
+	/**
+	 * @param enabled
+	 *            if the threshold is restricted to the dilated foreground of
+	 *            the background model before circles are searched
+	 */
+	public void setForegroundMask(boolean enabled) {
+		foregroundMask = enabled;
+	}
+
+	/**
+	 * @return number of frames in which Sphero is found in the foreground only
+	 */
+	public long getMovingDetections() {
+		return movingDetections;
+	}
+
+	/**
+	 * @return number of frames in which Sphero stood still and is found
+	 *         outside the foreground
+	 */
+	public long getStillDetections() {
+		return stillDetections;
+	}
+
+	/**
+	 * @param enabled
+	 *            if Sphero is tracked with CamShift on a histogram of its
+	 *            color while the confidence is high enough, the detector is
+	 *            only used when it is not
+	 */
+	public void setCamShift(boolean enabled) {
+		if (enabled && camShift == null)
+			camShift = new CamShiftTracker();
+		else if (!enabled && camShift != null) {
+			camShift.release();
+			camShift = null;
+		}
+	}
+
+	/**
+	 * @return the CamShift tracker, null if it is not enabled
+	 */
+	public CamShiftTracker getCamShift() {
+		return camShift;
+	}
+
+	/**
+	 * @param detector
+	 *            that finds Sphero in the window around its predicted
+	 *            location, the current one is released
+	 */
+	public void setDetector(SpheroDetector detector) {
+		this.detector.release();
+		this.detector = detector;
+	}
+
+	/**
+	 * @return detector that finds Sphero in the window around its predicted
+	 *         location
+	 */
+	public SpheroDetector getDetector() {
+		return detector;
+	}
 }
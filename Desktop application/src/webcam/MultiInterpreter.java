@@ -0,0 +1,199 @@
+package webcam;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import main.Assignment;
+import main.CircleObservation;
+import main.Constant;
+import main.Sphero;
+import main.StaticMethods;
+
+import com.googlecode.javacv.cpp.opencv_core.CvPoint;
+import com.googlecode.javacv.cpp.opencv_core.CvRect;
+import com.googlecode.javacv.cpp.opencv_core.CvScalar;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of the tracking of several Spheros at once, each with its
+ *                 own LED color, Kalman filter and state. Every Sphero
+ *                 thresholds a window around its predicted location with its
+ *                 color, or the complete frame when it is lost. All round
+ *                 blobs that are found are candidates for every Sphero, and
+ *                 they are assigned with the Hungarian method on a cost of
+ *                 position, radius and hue.
+ */
+public class MultiInterpreter {
+
+	private Sphero[] spheros;
+	private CvScalar[] colors;
+	private float radius;
+	private BlobDetector detector;
+	private List<CircleObservation> candidates;
+	private CvRect window;
+	private CvScalar low, high;
+	private long associations, associationTime, maxAssociationTime;
+
+	/**
+	 * @param colors
+	 *            hsb colors of the LEDs, one for every Sphero
+	 * @param radius
+	 *            expected radius of the Spheros in pixels
+	 */
+	public MultiInterpreter(CvScalar[] colors, float radius) {
+		this.colors = colors;
+		this.radius = radius;
+		spheros = new Sphero[colors.length];
+		for (int i = 0; i < spheros.length; i++)
+			spheros[i] = new Sphero();
+		detector = new BlobDetector();
+		candidates = new ArrayList<CircleObservation>();
+		window = new CvRect();
+		low = new CvScalar(0.0, 0.0, 0.0, 0.0);
+		high = new CvScalar(0.0, 0.0, 0.0, 0.0);
+		associations = 0;
+		associationTime = 0;
+		maxAssociationTime = 0;
+	}
+
+	/**
+	 * Finds all Spheros in the image and reports the observations to them
+	 *
+	 * @param img
+	 *            Image object
+	 * @param mmPerPx
+	 *            of the frame
+	 */
+	public void location(Image img, double mmPerPx) {
+		long timestamp = img.getTimestamp();
+		int tracks = spheros.length;
+		CvPoint[] predicted = new CvPoint[tracks];
+		double[] gates = new double[tracks];
+		float[] radii = new float[tracks];
+		CvScalar[] hsb = new CvScalar[tracks];
+		candidates.clear();
+		for (int t = 0; t < tracks; t++) {
+			Sphero sphero = spheros[t];
+			if (sphero.isObserved() && sphero.notSeenFor(timestamp) > Constant.NOT_SEEN_FOR) {
+				main.SpheroExperiment.Log.log(Level.WARNING, "--- Didn't see Sphero " + t + " for a long time ---");
+				sphero.reset();
+			}
+			radii[t] = sphero.getRadius() >= 1.0 ? sphero.getRadius() : radius;
+			hsb[t] = sphero.getColor() != null ? sphero.getColor() : colors[t];
+			int level = Interpreter.pyramidLevel(radii[t]);
+			CvRect w;
+			if (sphero.isObserved()) {
+				predicted[t] = sphero.getPredictedCenter(timestamp);
+				if (predicted[t] == null)
+					predicted[t] = sphero.getCenter();
+				gates[t] = radii[t] * Constant.CIRCLE_NEAR + Constant.KALMAN_GATE_SIGMAS
+						* sphero.getPredictionUncertainty(timestamp);
+				w = Interpreter.window(img, level, predicted[t], gates[t] + radii[t], window);
+			} else {
+				// A lost Sphero is searched in the complete frame
+				gates[t] = Double.POSITIVE_INFINITY;
+				IplImage levelImg = img.getLevel(level);
+				w = window.x(0).y(0).width(levelImg.width()).height(levelImg.height());
+			}
+			if (w == null)
+				continue;
+			Interpreter.bounds(hsb[t], low, high);
+			IplImage mask = img.getThreshold(low, high, ((int) Math.round(radii[t]) / 2) >> level, level, w);
+			int first = candidates.size();
+			detector.findAll(mask, img, level, w.x(), w.y(), radii[t], candidates);
+			// A ball in the windows of two Spheros is one candidate
+			for (int i = candidates.size() - 1; i >= first; i--) {
+				CircleObservation candidate = candidates.get(i);
+				for (int j = 0; j < first; j++) {
+					CircleObservation other = candidates.get(j);
+					if (StaticMethods.dist(candidate.x, candidate.y, other.x, other.y) < Math.min(candidate.radius,
+							other.radius) / 2.0) {
+						candidates.remove(i);
+						break;
+					}
+				}
+			}
+		}
+
+		int count = candidates.size();
+		CvPoint[] centers = new CvPoint[count];
+		CvScalar[] candidateColors = new CvScalar[count];
+		for (int c = 0; c < count; c++) {
+			CircleObservation candidate = candidates.get(c);
+			centers[c] = new CvPoint(Math.round(candidate.x), Math.round(candidate.y));
+			candidateColors[c] = img.getColor(centers[c], candidate.radius);
+		}
+
+		long start = System.nanoTime();
+		double[][] cost = new double[tracks][count];
+		for (int t = 0; t < tracks; t++)
+			for (int c = 0; c < count; c++)
+				cost[t][c] = cost(candidates.get(c), candidateColors[c], predicted[t], gates[t], radii[t], hsb[t]);
+		int[] assignment = Assignment.solve(cost);
+		long time = System.nanoTime() - start;
+		associations++;
+		associationTime += time;
+		maxAssociationTime = Math.max(maxAssociationTime, time);
+
+		for (int t = 0; t < tracks; t++) {
+			int c = assignment[t];
+			if (c >= 0)
+				spheros[t].observe(centers[c], candidates.get(c).radius, candidateColors[c], mmPerPx, timestamp);
+		}
+	}
+
+	/**
+	 * @return cost of assigning the candidate to the Sphero, infinite if it
+	 *         is outside the gate or has another hue
+	 */
+	private static double cost(CircleObservation candidate, CvScalar candidateColor, CvPoint predicted,
+			double gate, float radius, CvScalar hsb) {
+		double position = 0.0;
+		if (predicted != null) {
+			double dist = StaticMethods.dist(candidate.x, candidate.y, predicted.x(), predicted.y());
+			if (dist > gate)
+				return Double.POSITIVE_INFINITY;
+			position = dist / gate;
+		}
+		double size = (candidate.radius - radius) / radius;
+		double hue = 0.0;
+		if (candidateColor != null) {
+			// Hue of 8 bit hsb images is a circle of 180
+			double diff = Math.abs(candidateColor.getVal(0) - hsb.getVal(0));
+			hue = Math.min(diff, 180.0 - diff) / Constant.HUE_SEARCH_RANGE;
+			if (hue > 1.0)
+				return Double.POSITIVE_INFINITY;
+		}
+		return position * position + size * size + hue * hue;
+	}
+
+	/**
+	 * @return all Spheros in the order of their colors
+	 */
+	public Sphero[] getSpheros() {
+		return spheros;
+	}
+
+	/**
+	 * @return average time in ms of the cost matrix and the assignment
+	 */
+	public double getMeanAssociationTime() {
+		return associations > 0 ? associationTime / 1000000.0 / associations : 0.0;
+	}
+
+	/**
+	 * @return longest time in ms of the cost matrix and the assignment
+	 */
+	public double getMaxAssociationTime() {
+		return maxAssociationTime / 1000000.0;
+	}
+
+	/**
+	 * Frees the buffers of the detector
+	 */
+	public void release() {
+		detector.release();
+	}
+}
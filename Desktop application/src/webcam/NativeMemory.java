@@ -0,0 +1,311 @@
+package webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.IPL_DEPTH_8U;
+import static com.googlecode.javacv.cpp.opencv_core.cvCreateImage;
+import static com.googlecode.javacv.cpp.opencv_core.cvCreateMemStorage;
+import static com.googlecode.javacv.cpp.opencv_core.cvReleaseImage;
+import static com.googlecode.javacv.cpp.opencv_core.cvReleaseMemStorage;
+import static com.googlecode.javacv.cpp.opencv_core.cvSetImageROI;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+
+import main.Constant;
+
+import com.googlecode.javacv.cpp.opencv_core.CvMemStorage;
+import com.googlecode.javacv.cpp.opencv_core.CvRect;
+import com.googlecode.javacv.cpp.opencv_core.CvSize;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of the bookkeeping of native images and memory storages.
+ *                 Every allocation is made for an owner, the live bytes and
+ *                 high-water marks are kept per owner, in total and per
+ *                 frame. Frames are counted per thread, only threads that
+ *                 call beginFrame() have them. Temporary allocations should
+ *                 be released in the frame of their thread, the ones that are
+ *                 not are reported at the end of that frame. Images of a pool
+ *                 are temporary from the moment they are lent until they are
+ *                 returned to the pool.
+ */
+public class NativeMemory {
+
+	private static class Allocation {
+		private String owner;
+		private long bytes, thread, frame;
+		private boolean temporary, reported;
+
+		private Allocation(String owner, long bytes, long thread, long frame, boolean temporary) {
+			this.owner = owner;
+			this.bytes = bytes;
+			this.thread = thread;
+			this.frame = frame;
+			this.temporary = temporary;
+			reported = false;
+		}
+	}
+
+	// Current frame of the thread, -1 if it never began one, and the bytes
+	// allocated and the high-water mark during that frame
+	private static final ThreadLocal<long[]> threadFrame = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[] { -1, 0, 0 };
+		}
+	};
+
+	private static Map<Long, Allocation> live = new HashMap<Long, Allocation>();
+	// Live bytes and high-water mark per owner
+	private static Map<String, long[]> owners = new TreeMap<String, long[]>();
+	private static long liveBytes = 0, highWaterBytes = 0, frame = 0, leaks = 0;
+
+	/**
+	 * @param owner
+	 *            name of the class that uses the image
+	 * @param size
+	 *            of the image
+	 * @param depth
+	 *            of the image
+	 * @param channels
+	 *            of the image
+	 * @param temporary
+	 *            if the image should be released in this frame
+	 * @return new image
+	 */
+	public static IplImage createImage(String owner, CvSize size, int depth, int channels, boolean temporary) {
+		IplImage img = cvCreateImage(size, depth, channels);
+		allocated(img.address(), owner, img.imageSize(), temporary);
+		return img;
+	}
+
+	/**
+	 * @param owner
+	 *            name of the class that uses the storage
+	 * @param temporary
+	 *            if the storage should be released in this frame
+	 * @return new memory storage. Its size is counted as one block of
+	 *         Constant.NATIVE_STORAGE_BLOCK bytes.
+	 */
+	public static CvMemStorage createStorage(String owner, boolean temporary) {
+		CvMemStorage storage = cvCreateMemStorage(0);
+		allocated(storage.address(), owner, Constant.NATIVE_STORAGE_BLOCK, temporary);
+		return storage;
+	}
+
+	/**
+	 * @param owner
+	 *            name of the class that uses the image
+	 * @param scratch
+	 *            image that is kept for next frames, may be null
+	 * @param like
+	 *            8 bit image with 1 channel
+	 * @param roi
+	 *            rectangle that is set as region of interest
+	 * @return scratch, or a larger one if it is too small, with its region of
+	 *         interest set to the size of like
+	 */
+	static IplImage scratch(String owner, IplImage scratch, IplImage like, CvRect roi) {
+		return scratch(owner, scratch, like.width(), like.height(), 1, roi);
+	}
+
+	/**
+	 * @param owner
+	 *            name of the class that uses the image
+	 * @param scratch
+	 *            8 bit image that is kept for next frames, may be null
+	 * @param width
+	 *            that is needed
+	 * @param height
+	 *            that is needed
+	 * @param channels
+	 *            of the image
+	 * @param roi
+	 *            rectangle that is set as region of interest
+	 * @return scratch, or a larger one if it is too small, with its region of
+	 *         interest set to width and height
+	 */
+	static IplImage scratch(String owner, IplImage scratch, int width, int height, int channels, CvRect roi) {
+		if (scratch == null || scratch.width() < width || scratch.height() < height) {
+			CvSize size = new CvSize(Math.max(width, scratch != null ? scratch.width() : 0), Math.max(height,
+					scratch != null ? scratch.height() : 0));
+			releaseImage(scratch);
+			scratch = createImage(owner, size, IPL_DEPTH_8U, channels, false);
+		}
+		// The region of interest is not reset, setting it again reuses it
+		cvSetImageROI(scratch, roi.x(0).y(0).width(width).height(height));
+		return scratch;
+	}
+
+	/**
+	 * @param img
+	 *            that is released, null is ignored
+	 */
+	public static void releaseImage(IplImage img) {
+		if (img == null)
+			return;
+		released(img.address());
+		cvReleaseImage(img);
+	}
+
+	/**
+	 * @param storage
+	 *            that is released, null is ignored
+	 */
+	public static void releaseStorage(CvMemStorage storage) {
+		if (storage == null)
+			return;
+		released(storage.address());
+		cvReleaseMemStorage(storage);
+	}
+
+	private static synchronized void allocated(long address, String owner, long bytes, boolean temporary) {
+		long[] state = threadFrame.get();
+		live.put(address, new Allocation(owner, bytes, Thread.currentThread().getId(), state[0], temporary));
+		long[] counts = owners.get(owner);
+		if (counts == null) {
+			counts = new long[2];
+			owners.put(owner, counts);
+		}
+		counts[0] += bytes;
+		counts[1] = Math.max(counts[1], counts[0]);
+		liveBytes += bytes;
+		highWaterBytes = Math.max(highWaterBytes, liveBytes);
+		state[1] += bytes;
+		state[2] = Math.max(state[2], liveBytes);
+	}
+
+	/**
+	 * Makes an image of a pool temporary in the current frame of the calling
+	 * thread
+	 *
+	 * @param img
+	 *            that is handed out by the pool
+	 */
+	static synchronized void lent(IplImage img) {
+		Allocation allocation = live.get(img.address());
+		if (allocation == null)
+			return;
+		allocation.thread = Thread.currentThread().getId();
+		allocation.frame = threadFrame.get()[0];
+		allocation.temporary = true;
+		allocation.reported = false;
+	}
+
+	/**
+	 * @param img
+	 *            that is given back to its pool, it is kept for next frames
+	 */
+	static synchronized void returned(IplImage img) {
+		Allocation allocation = live.get(img.address());
+		if (allocation != null)
+			allocation.temporary = false;
+	}
+
+	private static synchronized void released(long address) {
+		Allocation allocation = live.remove(address);
+		// Memory that is allocated elsewhere is not counted
+		if (allocation == null)
+			return;
+		owners.get(allocation.owner)[0] -= allocation.bytes;
+		liveBytes -= allocation.bytes;
+	}
+
+	/**
+	 * Starts counting a new frame of the calling thread
+	 */
+	public static synchronized void beginFrame() {
+		frame++;
+		long[] state = threadFrame.get();
+		state[0] = frame;
+		state[1] = 0;
+		state[2] = liveBytes;
+	}
+
+	/**
+	 * Reports the temporary allocations of the calling thread that are not
+	 * released
+	 *
+	 * @return number of temporary allocations of this and earlier frames of
+	 *         the calling thread that are still live
+	 */
+	public static synchronized int endFrame() {
+		long thread = Thread.currentThread().getId();
+		int unreleased = 0;
+		for (Allocation allocation : live.values()) {
+			// Other threads have their own frames, or none at all
+			if (!allocation.temporary || allocation.thread != thread || allocation.frame == -1)
+				continue;
+			unreleased++;
+			if (!allocation.reported) {
+				allocation.reported = true;
+				leaks++;
+				main.SpheroExperiment.Log.log(Level.WARNING, "Native memory of " + allocation.owner + " ("
+						+ allocation.bytes + " bytes) from frame " + allocation.frame + " is not released");
+			}
+		}
+		return unreleased;
+	}
+
+	/**
+	 * @return bytes that are allocated and not released
+	 */
+	public static synchronized long getLiveBytes() {
+		return liveBytes;
+	}
+
+	/**
+	 * @param owner
+	 *            name of the class
+	 * @return bytes that are allocated for owner and not released
+	 */
+	public static synchronized long getLiveBytes(String owner) {
+		long[] counts = owners.get(owner);
+		return counts != null ? counts[0] : 0;
+	}
+
+	/**
+	 * @return highest number of live bytes since the start
+	 */
+	public static synchronized long getHighWaterBytes() {
+		return highWaterBytes;
+	}
+
+	/**
+	 * @return bytes that are allocated by the calling thread during its frame
+	 */
+	public static synchronized long getFrameAllocatedBytes() {
+		return threadFrame.get()[1];
+	}
+
+	/**
+	 * @return highest number of live bytes during the frame of the calling
+	 *         thread
+	 */
+	public static synchronized long getFrameHighWaterBytes() {
+		return threadFrame.get()[2];
+	}
+
+	/**
+	 * @return number of temporary allocations that were not released in their
+	 *         frame
+	 */
+	public static synchronized long getLeaks() {
+		return leaks;
+	}
+
+	/**
+	 * @return overview of the live bytes and high-water marks per owner
+	 */
+	public static synchronized String report() {
+		String report = "Native memory at frame " + threadFrame.get()[0] + ": " + liveBytes + " bytes live, "
+				+ highWaterBytes + " bytes high-water, " + threadFrame.get()[1] + " bytes allocated this frame, "
+				+ leaks + " leaks";
+		for (Map.Entry<String, long[]> entry : owners.entrySet())
+			report += "\n\t" + entry.getKey() + ": " + entry.getValue()[0] + " bytes live, " + entry.getValue()[1]
+					+ " bytes high-water";
+		return report;
+	}
+}
@@ -0,0 +1,199 @@
+package webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.cvClearMemStorage;
+import static com.googlecode.javacv.cpp.opencv_core.cvClearSeq;
+import static com.googlecode.javacv.cpp.opencv_core.cvCopy;
+import static com.googlecode.javacv.cpp.opencv_core.cvGetSeqElem;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_HOUGH_GRADIENT;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvHoughCircles;
+
+import java.util.logging.Level;
+
+import main.CircleObservation;
+import main.Constant;
+
+import com.googlecode.javacv.cpp.opencv_core.CvMemStorage;
+import com.googlecode.javacv.cpp.opencv_core.CvPoint;
+import com.googlecode.javacv.cpp.opencv_core.CvPoint3D32f;
+import com.googlecode.javacv.cpp.opencv_core.CvSeq;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of a thread that searches the complete frame for Sphero
+ *                 when it is lost, such that the control loop does not wait
+ *                 for the search. Only the newest offered frame is searched,
+ *                 frames that are offered during a search replace each other.
+ *                 A result is kept until it is polled or the search is
+ *                 cancelled.
+ */
+class Reacquisition extends Thread {
+
+	private ImagePool pool;
+	private CvMemStorage storage;
+	private IplImage pending;
+	private CvPoint pendingOffset;
+	private long pendingTimestamp, pendingGeneration, generation;
+	private CircleObservation result;
+	private long resultTimestamp, polledTimestamp;
+	private boolean running;
+	private long searches, found;
+
+	public Reacquisition() {
+		pool = new ImagePool("Reacquisition");
+		storage = NativeMemory.createStorage("Reacquisition", false);
+		pending = null;
+		result = null;
+		generation = 0;
+		running = true;
+		searches = 0;
+		found = 0;
+		setName("Reacquisition");
+		setDaemon(true);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			IplImage img;
+			CvPoint offset;
+			long timestamp, searchGeneration;
+			synchronized (this) {
+				while (running && pending == null) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						main.SpheroExperiment.Log.log(Level.WARNING, "Interrupted while waiting for a frame");
+						running = false;
+					}
+				}
+				if (!running)
+					break;
+				img = pending;
+				offset = pendingOffset;
+				timestamp = pendingTimestamp;
+				searchGeneration = pendingGeneration;
+				pending = null;
+			}
+			CircleObservation circleObservation = search(img, offset);
+			pool.release(img);
+			synchronized (this) {
+				searches++;
+				// Results of a cancelled search are not needed anymore
+				if (circleObservation != null && searchGeneration == generation) {
+					result = circleObservation;
+					resultTimestamp = timestamp;
+					found++;
+				}
+			}
+		}
+		synchronized (this) {
+			pool.release(pending);
+			pending = null;
+		}
+		pool.clear();
+		NativeMemory.releaseStorage(storage);
+	}
+
+	/**
+	 * Finds the best circle in an image with no further information
+	 *
+	 * @param img
+	 *            gray image or mask of the frame
+	 * @param offset
+	 *            of the frame in the complete frame
+	 * @return the best circle in coordinates of the complete frame
+	 */
+	private CircleObservation search(IplImage img, CvPoint offset) {
+		int maxWindow = Math.max(img.width(), img.height());
+		CvSeq circles = cvHoughCircles(img, storage, CV_HOUGH_GRADIENT, 1.0, maxWindow,
+				Constant.CIRCLE_CANNY_PARAMETER, Constant.CIRCLE_DETECTION_THRESHOLD, 5, maxWindow / 2);
+		CircleObservation circleObservation = null;
+		if (circles.total() > 0) {
+			CvPoint3D32f circle = new CvPoint3D32f(cvGetSeqElem(circles, 0));
+			circleObservation = new CircleObservation(circle.x() + offset.x(), circle.y() + offset.y(), circle.z());
+		}
+		cvClearSeq(circles);
+		cvClearMemStorage(storage);
+		return circleObservation;
+	}
+
+	/**
+	 * Hands a frame to the worker. It is copied, so the caller may reuse it.
+	 *
+	 * @param img
+	 *            gray image or mask of the frame
+	 * @param offset
+	 *            of the frame in the complete frame
+	 * @param timestamp
+	 *            capture time of the frame
+	 */
+	public void offer(IplImage img, CvPoint offset, long timestamp) {
+		IplImage copy = pool.acquire(img);
+		cvCopy(img, copy);
+		synchronized (this) {
+			if (!running) {
+				pool.release(copy);
+				return;
+			}
+			// A frame that is not searched yet is replaced by the newer one
+			pool.release(pending);
+			pending = copy;
+			pendingOffset = new CvPoint(offset.x(), offset.y());
+			pendingTimestamp = timestamp;
+			pendingGeneration = generation;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return the circle that is found since the last poll, null if there is
+	 *         none
+	 */
+	public synchronized CircleObservation poll() {
+		CircleObservation circleObservation = result;
+		polledTimestamp = resultTimestamp;
+		result = null;
+		return circleObservation;
+	}
+
+	/**
+	 * @return capture time of the frame of the last polled circle
+	 */
+	public synchronized long getPolledTimestamp() {
+		return polledTimestamp;
+	}
+
+	/**
+	 * Forgets the frame that is not searched yet and the results of the
+	 * current search
+	 */
+	public synchronized void cancel() {
+		pool.release(pending);
+		pending = null;
+		result = null;
+		generation++;
+	}
+
+	/**
+	 * Stops the thread after the current search, it frees its buffers
+	 */
+	public synchronized void exit() {
+		running = false;
+		notifyAll();
+	}
+
+	/**
+	 * @return number of frames that are searched
+	 */
+	public synchronized long getSearches() {
+		return searches;
+	}
+
+	/**
+	 * @return number of searches that found a circle
+	 */
+	public synchronized long getFound() {
+		return found;
+	}
+}
@@ -0,0 +1,50 @@
+package webcam;
+
+import main.CircleObservation;
+
+import com.googlecode.javacv.cpp.opencv_core.CvPoint;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of a way to find Sphero in a thresholded window of a frame.
+ *                 The Interpreter makes the window around the predicted
+ *                 location, the detector picks the circle in it. A detector
+ *                 keeps its own buffers, so it should not be shared by
+ *                 several threads.
+ */
+public interface SpheroDetector {
+
+	/**
+	 * @param mask
+	 *            thresholded window, it is not changed
+	 * @param img
+	 *            Image object
+	 * @param level
+	 *            of the pyramid of the window
+	 * @param left
+	 *            side of the window in the level
+	 * @param top
+	 *            side of the window in the level
+	 * @param radius
+	 *            expected radius at full resolution
+	 * @param location
+	 *            earlier location in coordinates of the complete frame
+	 * @param maxDist
+	 *            maximum distance to location at full resolution
+	 * @return the circle closest to location in coordinates of the complete
+	 *         frame, null if there is none
+	 */
+	public CircleObservation detect(IplImage mask, Image img, int level, int left, int top, float radius,
+			CvPoint location, double maxDist);
+
+	/**
+	 * @return name of the detector for reports
+	 */
+	public String getName();
+
+	/**
+	 * Frees the buffers of the detector
+	 */
+	public void release();
+}
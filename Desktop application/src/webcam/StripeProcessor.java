@@ -0,0 +1,210 @@
+package webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.cvCopy;
+import static com.googlecode.javacv.cpp.opencv_core.cvGetSubRect;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvCvtColor;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvSmooth;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import main.Constant;
+
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+import com.googlecode.javacv.cpp.opencv_core.CvRect;
+import com.googlecode.javacv.cpp.opencv_core.CvSize;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of image operations that are split in horizontal stripes
+ *                 which are processed on a fork/join pool. Blurs read a halo
+ *                 of half the kernel size above and below their stripe, such
+ *                 that the result is the same as when the complete image is
+ *                 processed at once.
+ */
+public class StripeProcessor {
+
+	private ForkJoinPool forkJoin;
+	private ImagePool pool;
+	private int parallelism;
+	// Headers, scratch images and buffers of every stripe, reused for every
+	// frame
+	private CvMat[] sourceRows, destinationRows;
+	private CvRect[] sourceRects, destinationRects;
+	private CvSize[] sizes;
+	private IplImage[] scratch;
+	private byte[][] rowBuffers, outBuffers;
+
+	/**
+	 * @param parallelism
+	 *            number of threads that process the stripes
+	 */
+	public StripeProcessor(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+		forkJoin = new ForkJoinPool(this.parallelism);
+		pool = new ImagePool("StripeProcessor");
+		sourceRows = new CvMat[this.parallelism];
+		destinationRows = new CvMat[this.parallelism];
+		sourceRects = new CvRect[this.parallelism];
+		destinationRects = new CvRect[this.parallelism];
+		sizes = new CvSize[this.parallelism];
+		scratch = new IplImage[this.parallelism];
+		rowBuffers = new byte[this.parallelism][0];
+		outBuffers = new byte[this.parallelism][0];
+		for (int i = 0; i < this.parallelism; i++) {
+			sourceRows[i] = new CvMat();
+			destinationRows[i] = new CvMat();
+			sourceRects[i] = new CvRect();
+			destinationRects[i] = new CvRect();
+			sizes[i] = new CvSize();
+		}
+	}
+
+	/**
+	 * Work on one stripe
+	 */
+	private interface Stripe {
+		/**
+		 * @param index
+		 *            of the stripe
+		 * @param y0
+		 *            first row of the stripe
+		 * @param y1
+		 *            row after the stripe
+		 */
+		public void process(int index, int y0, int y1);
+	}
+
+	/**
+	 * Splits the stripes in halves until a single stripe is left
+	 */
+	private static class Split extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private int first, last;
+		private int[] bounds;
+		private Stripe stripe;
+
+		Split(int first, int last, int[] bounds, Stripe stripe) {
+			this.first = first;
+			this.last = last;
+			this.bounds = bounds;
+			this.stripe = stripe;
+		}
+
+		@Override
+		protected void compute() {
+			if (last - first == 1) {
+				stripe.process(first, bounds[first], bounds[last]);
+			} else {
+				int middle = (first + last) / 2;
+				invokeAll(new Split(first, middle, bounds, stripe), new Split(middle, last, bounds, stripe));
+			}
+		}
+	}
+
+	/**
+	 * @return first row of every stripe and the height of the image as last
+	 *         element
+	 */
+	private int[] bounds(int height) {
+		int stripes = Math.max(1, Math.min(parallelism, height / Constant.PARALLEL_MIN_STRIPE_ROWS));
+		int[] bounds = new int[stripes + 1];
+		for (int i = 0; i <= stripes; i++)
+			bounds[i] = i * height / stripes;
+		return bounds;
+	}
+
+	private void run(int[] bounds, Stripe stripe) {
+		forkJoin.invoke(new Split(0, bounds.length - 1, bounds, stripe));
+	}
+
+	/**
+	 * @return header of the rows y0 up to y1 of the image
+	 */
+	private static CvMat rows(IplImage img, int y0, int y1, CvMat mat, CvRect rect) {
+		return cvGetSubRect(img, mat, rect.x(0).y(y0).width(img.width()).height(y1 - y0));
+	}
+
+	private CvMat source(int index, IplImage img, int y0, int y1) {
+		return rows(img, y0, y1, sourceRows[index], sourceRects[index]);
+	}
+
+	private CvMat destination(int index, IplImage img, int y0, int y1) {
+		return rows(img, y0, y1, destinationRows[index], destinationRects[index]);
+	}
+
+	/**
+	 * cvCvtColor on stripes
+	 */
+	public void cvtColor(final IplImage src, final IplImage dst, final int code) {
+		run(bounds(src.height()), new Stripe() {
+			@Override
+			public void process(int index, int y0, int y1) {
+				cvCvtColor(source(index, src, y0, y1), destination(index, dst, y0, y1), code);
+			}
+		});
+	}
+
+	/**
+	 * cvSmooth on stripes, src and dst may be the same image
+	 */
+	public void smooth(final IplImage src, final IplImage dst, final int type, final int size) {
+		final int halo = size / 2;
+		final int height = src.height();
+		int[] bounds = bounds(height);
+		// Every stripe is smoothed with its halo into its own buffer first,
+		// such that no stripe reads rows that are already written
+		run(bounds, new Stripe() {
+			@Override
+			public void process(int index, int y0, int y1) {
+				int top = Math.max(0, y0 - halo), bottom = Math.min(height, y1 + halo);
+				scratch[index] = pool.acquire(sizes[index].width(src.width()).height(bottom - top), src.depth(),
+						src.nChannels());
+				cvSmooth(source(index, src, top, bottom), scratch[index], type, size);
+			}
+		});
+		run(bounds, new Stripe() {
+			@Override
+			public void process(int index, int y0, int y1) {
+				int top = Math.max(0, y0 - halo);
+				cvCopy(source(index, scratch[index], y0 - top, y1 - top), destination(index, dst, y0, y1));
+				pool.release(scratch[index]);
+				scratch[index] = null;
+			}
+		});
+	}
+
+	/**
+	 * ColorThreshold.apply on stripes
+	 */
+	public void threshold(final ColorThreshold threshold, final IplImage bgr, final IplImage mask) {
+		run(bounds(bgr.height()), new Stripe() {
+			@Override
+			public void process(int index, int y0, int y1) {
+				int width = mask.width();
+				if (outBuffers[index].length < width) {
+					rowBuffers[index] = new byte[width * 3];
+					outBuffers[index] = new byte[width];
+				}
+				threshold.apply(bgr, mask, y0, y1, rowBuffers[index], outBuffers[index]);
+			}
+		});
+	}
+
+	/**
+	 * @return number of threads that process the stripes
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Stops the threads and frees the buffers
+	 */
+	public void shutdown() {
+		forkJoin.shutdown();
+		pool.clear();
+	}
+}
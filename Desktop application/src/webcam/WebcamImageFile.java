@@ -2,15 +2,19 @@ package webcam;
 
 import static com.googlecode.javacv.cpp.opencv_highgui.*;
 
+import main.StaticMethods;
+
 import com.googlecode.javacv.cpp.opencv_core.IplImage;
 
 public class WebcamImageFile extends Thread implements InputStream {
 
 	private final String file = "C:/Users/Gebruiker/Google Drive/Studie/Scriptie/Voorbeelden/example1.jpg";
 	private IplImage img;
+	private long sequence;
 
 	public WebcamImageFile() {
 		img = null;
+		sequence = 0;
 		this.start();
 	}
 
@@ -19,6 +23,13 @@ public class WebcamImageFile extends Thread implements InputStream {
 		return img;
 	}
 
+	@Override
+	public Frame nextFrame() {
+		if (img == null)
+			return null;
+		return new Frame(img, StaticMethods.monotonicMillis(), sequence++);
+	}
+
 	@Override
 	public void exit() {
 		System.out.println("Exit WebcamImageFile");
@@ -1,17 +1,41 @@
 package webcam;
 
+import static com.googlecode.javacv.cpp.opencv_core.IPL_DEPTH_16U;
+import static com.googlecode.javacv.cpp.opencv_core.cvGetSize;
+
+import java.nio.ShortBuffer;
+
+import main.StaticMethods;
+
 import com.googlecode.javacv.FrameGrabber.Exception;
 import com.googlecode.javacv.OpenKinectFrameGrabber;
 import com.googlecode.javacv.cpp.opencv_core.IplImage;
 
-public class WebcamKinect extends Thread implements InputStream {
+public class WebcamKinect extends Thread implements InputStream, DepthStream {
+
+	// Raw value of the Kinect for an unknown depth
+	private static final int RAW_UNKNOWN = 2047;
 
 	private OpenKinectFrameGrabber grabber;
+	private IplImage depth;
 	private boolean started;
+	private long sequence;
+	private short[] millimetres, row;
 
 	public WebcamKinect() {
 		grabber = null;
+		depth = null;
 		started = false;
+		sequence = 0;
+		// The grabber gives 11 bit disparities, the depth segmentation works
+		// in mm
+		millimetres = new short[RAW_UNKNOWN + 1];
+		for (int raw = 0; raw < RAW_UNKNOWN; raw++) {
+			double mm = 1000.0 * 0.1236 * Math.tan(raw / 2842.5 + 1.1863);
+			millimetres[raw] = (short) (mm > 0.0 && mm < 65535.0 ? Math.round(mm) : 0);
+		}
+		millimetres[RAW_UNKNOWN] = 0;
+		row = new short[0];
 		this.start();
 	}
 
@@ -32,6 +56,9 @@ public class WebcamKinect extends Thread implements InputStream {
 		IplImage img = null;
 		try {
 			img = grabber.grabVideo();
+			IplImage raw = grabber.grabDepth();
+			if (raw != null)
+				toMillimetres(raw);
 		} catch (Exception e) {
 			e.printStackTrace();
 			// Exits from 10 to 19 means WebcamLaptop class exits
@@ -40,6 +67,46 @@ public class WebcamKinect extends Thread implements InputStream {
 		return img;
 	}
 
+	@Override
+	public Frame nextFrame() {
+		IplImage img = nextImage();
+		if (img == null)
+			return null;
+		return new Frame(img, StaticMethods.monotonicMillis(), sequence++);
+	}
+
+	/**
+	 * Converts the raw depth of the grabber into the depth image in mm
+	 *
+	 * @param raw
+	 *            11 bit depth image of the grabber
+	 */
+	private void toMillimetres(IplImage raw) {
+		if (depth == null || depth.width() != raw.width() || depth.height() != raw.height()) {
+			if (depth != null)
+				NativeMemory.releaseImage(depth);
+			depth = NativeMemory.createImage("WebcamKinect", cvGetSize(raw), IPL_DEPTH_16U, 1, false);
+		}
+		int width = raw.width();
+		if (row.length < width)
+			row = new short[width];
+		ShortBuffer in = raw.getShortBuffer(), out = depth.getShortBuffer();
+		int inStep = raw.widthStep() / 2, outStep = depth.widthStep() / 2;
+		for (int y = 0; y < raw.height(); y++) {
+			in.position(y * inStep);
+			in.get(row, 0, width);
+			for (int x = 0; x < width; x++)
+				row[x] = millimetres[row[x] & RAW_UNKNOWN];
+			out.position(y * outStep);
+			out.put(row, 0, width);
+		}
+	}
+
+	@Override
+	public IplImage getDepth() {
+		return depth;
+	}
+
 	public void exit() {
 		try {
 			grabber.flush();
@@ -48,6 +115,9 @@ public class WebcamKinect extends Thread implements InputStream {
 			// Exits from 10 to 19 means WebcamLaptop class exits
 			System.exit(12);
 		}
+		if (depth != null)
+			NativeMemory.releaseImage(depth);
+		depth = null;
 	}
 
 	public boolean ready() {
@@ -2,6 +2,8 @@ package webcam;
 
 import java.util.logging.Level;
 
+import main.StaticMethods;
+
 import com.googlecode.javacv.FrameGrabber.Exception;
 import com.googlecode.javacv.OpenCVFrameGrabber;
 import com.googlecode.javacv.cpp.opencv_core;
@@ -11,12 +13,39 @@ import com.googlecode.javacv.cpp.opencv_core.IplImage;
 public class WebcamLaptop implements InputStream {
 
 	private OpenCVFrameGrabber grabber;
+	private CaptureThread capture;
 	private boolean running;
+	private long sequence;
 
+	/**
+	 * Opens a webcam that is read from the calling thread
+	 * 
+	 * @param webcam
+	 *            number of the webcam
+	 */
 	public WebcamLaptop(int webcam) {
+		this(webcam, false);
+	}
+
+	/**
+	 * Opens a webcam
+	 * 
+	 * @param webcam
+	 *            number of the webcam
+	 * @param asynchronous
+	 *            if a separate thread should grab the frames. nextImage() then
+	 *            returns the newest frame without waiting for the camera.
+	 */
+	public WebcamLaptop(int webcam, boolean asynchronous) {
 		running = false;
 		grabber = null;
+		capture = null;
+		sequence = 0;
 		this.init(webcam);
+		if (asynchronous) {
+			capture = new CaptureThread(grabber);
+			capture.start();
+		}
 	}
 
 	public WebcamLaptop() {
@@ -39,9 +68,20 @@ public class WebcamLaptop implements InputStream {
 
 	@Override
 	public IplImage nextImage() {
+		Frame frame = nextFrame();
+		return frame != null ? frame.getImage() : null;
+	}
+
+	@Override
+	public Frame nextFrame() {
 		if (running) {
+			if (capture != null)
+				return capture.nextFrame();
 			try {
-				return grabber.grab();
+				IplImage img = grabber.grab();
+				if (img == null)
+					return null;
+				return new Frame(img, StaticMethods.monotonicMillis(), sequence++);
 			} catch (Exception e) {
 				e.printStackTrace();
 				// Exits from 10 to 19 means WebcamLaptop class exits
@@ -53,6 +93,12 @@ public class WebcamLaptop implements InputStream {
 
 	public void exit() {
 		running = false;
+		// A capture thread that is still in grab() would use a released
+		// grabber
+		if (capture != null && !capture.exit()) {
+			main.SpheroExperiment.Log.log(Level.WARNING, "Leaking the grabber of the capture thread");
+			return;
+		}
 		try {
 			grabber.release();
 		} catch (Exception e) {
@@ -67,6 +113,10 @@ public class WebcamLaptop implements InputStream {
 
 	@Override
 	public void flush() {
+		if (capture != null) {
+			capture.flush();
+			return;
+		}
 		try {
 			grabber.flush();
 		} catch (Exception e) {
@@ -74,4 +124,20 @@ public class WebcamLaptop implements InputStream {
 		}
 
 	}
+
+	/**
+	 * @return number of frames that were overwritten by a newer frame before
+	 *         they were used. Always 0 when not asynchronous.
+	 */
+	public long getDroppedFrames() {
+		return capture != null ? capture.getDroppedFrames() : 0;
+	}
+
+	/**
+	 * @return number of times nextFrame() waited because the newest frame was
+	 *         already returned. Always 0 when not asynchronous.
+	 */
+	public long getStaleFrames() {
+		return capture != null ? capture.getStaleFrames() : 0;
+	}
 }
@@ -0,0 +1,169 @@
+package webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.cvCopy;
+import static com.googlecode.javacv.cpp.opencv_core.cvResetImageROI;
+import static com.googlecode.javacv.cpp.opencv_core.cvSetImageROI;
+
+import java.util.logging.Level;
+
+import main.Constant;
+
+import com.googlecode.javacv.cpp.opencv_core.CvPoint;
+import com.googlecode.javacv.cpp.opencv_core.CvRect;
+import com.googlecode.javacv.cpp.opencv_core.CvSize;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of an inputstream that cuts the arena out of the frames of
+ *                 another inputstream. As long as the arena is not found the
+ *                 complete frames are passed on. The offset of the region is
+ *                 part of every frame, such that coordinates can be
+ *                 translated back to the complete frame.
+ */
+public class WebcamRegion implements InputStream, DepthStream {
+
+	private InputStream is;
+	private CvRect region, candidate;
+	private int stableFrames;
+	private IplImage crop, depthCrop;
+	private CvRect cropped;
+
+	/**
+	 * @param is
+	 *            inputstream that delivers the complete frames
+	 */
+	public WebcamRegion(InputStream is) {
+		this.is = is;
+		region = null;
+		candidate = null;
+		stableFrames = 0;
+		crop = null;
+		depthCrop = null;
+		cropped = null;
+	}
+
+	/**
+	 * Reports the bounding box of the arena. Once the bounding box has been
+	 * stable for Constant.ROI_STABLE_FRAMES frames it is used, with a margin of
+	 * Constant.ROI_MARGIN, as region for all next frames.
+	 *
+	 * @param arena
+	 *            bounding box of the arena in coordinates of the complete frame
+	 * @return if the region changed because of this observation
+	 */
+	public synchronized boolean observeArena(CvRect arena) {
+		if (region != null || arena == null)
+			return false;
+		if (candidate != null && Math.abs(candidate.x() - arena.x()) <= Constant.ROI_MARGIN
+				&& Math.abs(candidate.y() - arena.y()) <= Constant.ROI_MARGIN
+				&& Math.abs(candidate.width() - arena.width()) <= Constant.ROI_MARGIN
+				&& Math.abs(candidate.height() - arena.height()) <= Constant.ROI_MARGIN)
+			stableFrames++;
+		else
+			stableFrames = 0;
+		candidate = new CvRect(arena.x(), arena.y(), arena.width(), arena.height());
+		if (stableFrames >= Constant.ROI_STABLE_FRAMES) {
+			region = new CvRect(candidate.x() - Constant.ROI_MARGIN, candidate.y() - Constant.ROI_MARGIN,
+					candidate.width() + 2 * Constant.ROI_MARGIN, candidate.height() + 2 * Constant.ROI_MARGIN);
+			main.SpheroExperiment.Log.log(Level.INFO, "Region of interest set to " + region.x() + ", " + region.y()
+					+ ", " + region.width() + "x" + region.height());
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Passes the complete frames on again until the arena is stable again
+	 */
+	public synchronized void resetRegion() {
+		region = null;
+		candidate = null;
+		stableFrames = 0;
+	}
+
+	/**
+	 * @return the region that is cut out, null if the complete frames are used
+	 */
+	public synchronized CvRect getRegion() {
+		return region;
+	}
+
+	@Override
+	public IplImage nextImage() {
+		Frame frame = nextFrame();
+		return frame != null ? frame.getImage() : null;
+	}
+
+	@Override
+	public synchronized Frame nextFrame() {
+		Frame frame = is.nextFrame();
+		cropped = null;
+		if (frame == null || region == null)
+			return frame;
+		IplImage img = frame.getImage();
+		// Clip the region to the frame
+		int x = Math.max(0, region.x()), y = Math.max(0, region.y());
+		int width = Math.min(img.width(), region.x() + region.width()) - x;
+		int height = Math.min(img.height(), region.y() + region.height()) - y;
+		if (width <= 0 || height <= 0)
+			return frame;
+		if (crop == null || crop.width() != width || crop.height() != height || crop.depth() != img.depth()
+				|| crop.nChannels() != img.nChannels()) {
+			if (crop != null)
+				NativeMemory.releaseImage(crop);
+			crop = NativeMemory.createImage("WebcamRegion", new CvSize(width, height), img.depth(), img.nChannels(), false);
+		}
+		cropped = new CvRect(x, y, width, height);
+		cvSetImageROI(img, cropped);
+		cvCopy(img, crop);
+		cvResetImageROI(img);
+		return new Frame(crop, frame.getTimestamp(), frame.getSequence(), new CvPoint(x, y), img);
+	}
+
+	/**
+	 * @return depth of the inputstream, cut out like the last frame. Null if
+	 *         the inputstream has no depth.
+	 */
+	@Override
+	public synchronized IplImage getDepth() {
+		if (!(is instanceof DepthStream))
+			return null;
+		IplImage depth = ((DepthStream) is).getDepth();
+		if (depth == null || cropped == null)
+			return depth;
+		if (depth.width() < cropped.x() + cropped.width() || depth.height() < cropped.y() + cropped.height())
+			return null;
+		if (depthCrop == null || depthCrop.width() != cropped.width() || depthCrop.height() != cropped.height()) {
+			if (depthCrop != null)
+				NativeMemory.releaseImage(depthCrop);
+			depthCrop = NativeMemory.createImage("WebcamRegion", new CvSize(cropped.width(), cropped.height()),
+					depth.depth(), 1, false);
+		}
+		cvSetImageROI(depth, cropped);
+		cvCopy(depth, depthCrop);
+		cvResetImageROI(depth);
+		return depthCrop;
+	}
+
+	@Override
+	public void exit() {
+		is.exit();
+		if (crop != null)
+			NativeMemory.releaseImage(crop);
+		if (depthCrop != null)
+			NativeMemory.releaseImage(depthCrop);
+		crop = null;
+		depthCrop = null;
+	}
+
+	@Override
+	public boolean ready() {
+		return is.ready();
+	}
+
+	@Override
+	public void flush() {
+		is.flush();
+	}
+}
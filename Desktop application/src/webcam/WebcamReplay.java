@@ -0,0 +1,188 @@
+package webcam;
+
+import java.util.logging.Level;
+
+import main.Constant;
+import main.StaticMethods;
+
+import com.googlecode.javacv.FrameGrabber.Exception;
+import com.googlecode.javacv.OpenCVFrameGrabber;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of an inputstream that plays back a recorded video file, for
+ *                 example one of the files of the VideoWriter. Every frame of
+ *                 the file is returned exactly once and in order, so two
+ *                 replays of the same file give the same frames.
+ */
+public class WebcamReplay implements InputStream {
+
+	/**
+	 * REAL_TIME waits until a frame is due according to the frame rate of the
+	 * file, FAST returns frames as fast as they are asked for and STEP waits
+	 * until step() is called before it returns the next frame.
+	 */
+	public enum Mode {
+		REAL_TIME, FAST, STEP
+	}
+
+	private String file;
+	private OpenCVFrameGrabber grabber;
+	private Mode mode;
+	private double frameRate;
+	private Frame current;
+	private long frameIndex, startTime, firstFrameTime;
+	private boolean finished, stepRequested;
+
+	/**
+	 * Opens the video
+	 *
+	 * @param file
+	 *            path of the video file
+	 * @param mode
+	 *            in which the frames are played back
+	 */
+	public WebcamReplay(String file, Mode mode) {
+		this.file = file;
+		this.mode = mode;
+		grabber = null;
+		current = null;
+		frameIndex = 0;
+		finished = false;
+		stepRequested = true;
+		init();
+	}
+
+	public void init() {
+		main.SpheroExperiment.Log.log(Level.INFO, "Opening replay of " + file + " in mode " + mode);
+		grabber = new OpenCVFrameGrabber(file);
+		try {
+			grabber.start();
+		} catch (Exception e) {
+			// Exits from 20 to 29 means a video file class exits
+			e.printStackTrace();
+			System.exit(22);
+		}
+		frameRate = grabber.getFrameRate();
+		if (frameRate <= 0.0)
+			frameRate = Constant.REPLAY_FRAME_RATE;
+		startTime = StaticMethods.monotonicMillis();
+		firstFrameTime = -1;
+	}
+
+	@Override
+	public IplImage nextImage() {
+		Frame frame = nextFrame();
+		return frame != null ? frame.getImage() : null;
+	}
+
+	/**
+	 * The timestamp of a frame is its position in the video, counted from the
+	 * moment the replay was opened. Velocities are therefore the same in every
+	 * mode.
+	 */
+	@Override
+	public synchronized Frame nextFrame() {
+		if (finished)
+			return null;
+		// A frame is never returned twice, that would be a second
+		// measurement at the same time
+		while (mode == Mode.STEP && !stepRequested && !finished) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				main.SpheroExperiment.Log.log(Level.WARNING, "Interrupted while waiting for a step");
+				return null;
+			}
+		}
+		if (finished)
+			return null;
+		stepRequested = false;
+		long due = startTime + Math.round(frameIndex * 1000.0 / frameRate);
+		if (mode == Mode.REAL_TIME) {
+			long wait = due - StaticMethods.monotonicMillis();
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		IplImage img = null;
+		try {
+			img = grabber.grab();
+		} catch (Exception e) {
+			// Exits from 20 to 29 means a video file class exits
+			e.printStackTrace();
+			System.exit(23);
+		}
+		if (img == null) {
+			finished = true;
+			main.SpheroExperiment.Log.log(Level.INFO, "Replay of " + file + " finished after " + frameIndex
+					+ " frames at " + Math.round(getFramesPerSecond() * 10.0) / 10.0 + " f/s");
+			return null;
+		}
+		if (firstFrameTime == -1)
+			firstFrameTime = StaticMethods.monotonicMillis();
+		current = new Frame(img, due, frameIndex);
+		frameIndex++;
+		return current;
+	}
+
+	/**
+	 * Lets the next call to nextFrame() advance one frame when in STEP mode
+	 */
+	public synchronized void step() {
+		stepRequested = true;
+		notifyAll();
+	}
+
+	/**
+	 * @return number of frames that are read from the file
+	 */
+	public synchronized long getFrameIndex() {
+		return frameIndex;
+	}
+
+	/**
+	 * @return frames per second that were asked for since the first frame. In
+	 *         FAST mode this is the throughput of the pipeline.
+	 */
+	public synchronized double getFramesPerSecond() {
+		if (firstFrameTime == -1 || frameIndex < 2)
+			return 0.0;
+		long elapsed = StaticMethods.monotonicMillis() - firstFrameTime;
+		if (elapsed <= 0)
+			return 0.0;
+		return (frameIndex - 1) * 1000.0 / elapsed;
+	}
+
+	@Override
+	public void exit() {
+		synchronized (this) {
+			finished = true;
+			notifyAll();
+		}
+		try {
+			grabber.stop();
+			grabber.release();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public boolean ready() {
+		return !finished;
+	}
+
+	/**
+	 * Does nothing, a replay never skips frames
+	 */
+	@Override
+	public void flush() {
+
+	}
+}
@@ -0,0 +1,305 @@
+package webcam;
+
+import static com.googlecode.javacv.cpp.opencv_core.CV_AA;
+import static com.googlecode.javacv.cpp.opencv_core.CV_FILLED;
+import static com.googlecode.javacv.cpp.opencv_core.CV_RAND_NORMAL;
+import static com.googlecode.javacv.cpp.opencv_core.IPL_DEPTH_16U;
+import static com.googlecode.javacv.cpp.opencv_core.IPL_DEPTH_8U;
+import static com.googlecode.javacv.cpp.opencv_core.cvAddWeighted;
+import static com.googlecode.javacv.cpp.opencv_core.cvCircle;
+import static com.googlecode.javacv.cpp.opencv_core.cvConvertScale;
+import static com.googlecode.javacv.cpp.opencv_core.cvPoint;
+import static com.googlecode.javacv.cpp.opencv_core.cvRNG;
+import static com.googlecode.javacv.cpp.opencv_core.cvRandArr;
+import static com.googlecode.javacv.cpp.opencv_core.cvRectangle;
+import static com.googlecode.javacv.cpp.opencv_core.cvScalarAll;
+import static com.googlecode.javacv.cpp.opencv_core.cvSet;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_GAUSSIAN;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvSmooth;
+
+import java.util.Random;
+
+import main.CircleObservation;
+import main.Constant;
+import main.StaticMethods;
+
+import com.googlecode.javacv.cpp.opencv_core.CvRNG;
+import com.googlecode.javacv.cpp.opencv_core.CvRect;
+import com.googlecode.javacv.cpp.opencv_core.CvScalar;
+import com.googlecode.javacv.cpp.opencv_core.CvSize;
+import com.googlecode.javacv.cpp.opencv_core.IplImage;
+
+/**
+ * @author Pieter Marsman
+ * @Implementation of an inputstream that renders a virtual arena: a floor in
+ *                 the ground color surrounded by walls and a Sphero colored
+ *                 ball that bounces around, or several balls of their own
+ *                 color. The true position of every ball is known, so the
+ *                 output of the Interpreter and Ground can be scored without
+ *                 webcam, Sphero or arena.
+ */
+public class WebcamSynthetic implements InputStream, DepthStream {
+
+	private int width, height;
+	private double frameRate;
+	private IplImage canvas, depth;
+	private IplImage[] noiseImages;
+	private CvRect arena;
+	private CvScalar groundColor, wallColor;
+	private CvScalar[] ballColors;
+	private double[] x, y, dx, dy;
+	private double radius;
+	private double noise, lightingDrift;
+	private int blur;
+	private long frameIndex, startTime;
+	private CircleObservation[] truePositions;
+	private boolean running;
+	private Random random;
+
+	/**
+	 * Initializes an arena with a border of walls around the floor
+	 *
+	 * @param width
+	 *            of the frames in pixels
+	 * @param height
+	 *            of the frames in pixels
+	 * @param frameRate
+	 *            at which frames are returned. 0 returns frames as fast as
+	 *            possible, the ball still moves as if the frame rate was
+	 *            Constant.REPLAY_FRAME_RATE.
+	 */
+	public WebcamSynthetic(int width, int height, double frameRate) {
+		this.width = width;
+		this.height = height;
+		this.frameRate = frameRate;
+		random = new Random(Constant.SYNTHETIC_SEED);
+		int margin = (int) Math.round(Math.min(width, height) * Constant.SYNTHETIC_WALL_FRACTION);
+		arena = new CvRect(margin, margin, width - 2 * margin, height - 2 * margin);
+		groundColor = new CvScalar(40, 40, 40, 0);
+		wallColor = new CvScalar(200, 200, 200, 0);
+		ballColors = new CvScalar[] { new CvScalar(255, 120, 40, 0) };
+		radius = height * Constant.SYNTHETIC_RADIUS_FRACTION;
+		place(1);
+		noise = 0.0;
+		blur = 0;
+		lightingDrift = 0.0;
+		canvas = NativeMemory.createImage("WebcamSynthetic", new CvSize(width, height), IPL_DEPTH_8U, 3, false);
+		depth = NativeMemory.createImage("WebcamSynthetic", new CvSize(width, height), IPL_DEPTH_16U, 1, false);
+		noiseImages = null;
+		frameIndex = 0;
+		truePositions = new CircleObservation[1];
+		running = true;
+		startTime = StaticMethods.monotonicMillis();
+	}
+
+	/**
+	 * @param noise
+	 *            standard deviation of the gaussian pixel noise
+	 * @param blur
+	 *            size of the gaussian blur kernel, 0 for no blur
+	 * @param lightingDrift
+	 *            relative amplitude of a slow change in brightness
+	 */
+	public void setDistortion(double noise, int blur, double lightingDrift) {
+		this.noise = noise;
+		this.blur = blur > 0 ? blur + (blur + 1) % 2 : 0;
+		this.lightingDrift = lightingDrift;
+		releaseNoise();
+		if (noise > 0.0) {
+			CvRNG rng = cvRNG(Constant.SYNTHETIC_SEED);
+			noiseImages = new IplImage[Constant.SYNTHETIC_NOISE_FRAMES];
+			for (int i = 0; i < noiseImages.length; i++) {
+				noiseImages[i] = NativeMemory.createImage("WebcamSynthetic", new CvSize(width, height), IPL_DEPTH_8U, 3, false);
+				cvRandArr(rng, noiseImages[i], CV_RAND_NORMAL, cvScalarAll(128), cvScalarAll(noise));
+			}
+		}
+	}
+
+	/**
+	 * @param ground
+	 *            BGR color of the floor
+	 * @param wall
+	 *            BGR color of the walls
+	 * @param sphero
+	 *            BGR color of the ball
+	 */
+	public void setColors(CvScalar ground, CvScalar wall, CvScalar sphero) {
+		this.groundColor = ground;
+		this.wallColor = wall;
+		this.ballColors[0] = sphero;
+	}
+
+	/**
+	 * Replaces the ball by several balls that start next to each other on a
+	 * line through the middle of the floor, each in a random direction
+	 *
+	 * @param colors
+	 *            BGR color of every ball
+	 */
+	public synchronized void setBalls(CvScalar... colors) {
+		ballColors = colors;
+		truePositions = new CircleObservation[colors.length];
+		place(colors.length);
+	}
+
+	private void place(int balls) {
+		x = new double[balls];
+		y = new double[balls];
+		dx = new double[balls];
+		dy = new double[balls];
+		double speed = height * Constant.SYNTHETIC_SPEED_FRACTION;
+		for (int i = 0; i < balls; i++) {
+			x[i] = arena.x() + arena.width() * (i + 1) / (balls + 1.0);
+			y[i] = arena.y() + arena.height() / 2.0;
+			double angle = random.nextDouble() * 2 * Math.PI;
+			dx[i] = Math.cos(angle) * speed;
+			dy[i] = Math.sin(angle) * speed;
+		}
+	}
+
+	@Override
+	public IplImage nextImage() {
+		Frame frame = nextFrame();
+		return frame != null ? frame.getImage() : null;
+	}
+
+	@Override
+	public synchronized Frame nextFrame() {
+		if (!running)
+			return null;
+		double rate = frameRate > 0.0 ? frameRate : Constant.REPLAY_FRAME_RATE;
+		long due = startTime + Math.round(frameIndex * 1000.0 / rate);
+		if (frameRate > 0.0) {
+			long wait = due - StaticMethods.monotonicMillis();
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		if (frameIndex > 0)
+			move(1.0 / rate);
+		render(frameIndex / rate);
+		for (int i = 0; i < truePositions.length; i++)
+			truePositions[i] = new CircleObservation((float) x[i], (float) y[i], (float) radius);
+		return new Frame(canvas, due, frameIndex++);
+	}
+
+	/**
+	 * Moves the balls and lets them bounce against the walls, they pass
+	 * through each other
+	 *
+	 * @param seconds
+	 *            since the previous frame
+	 */
+	private void move(double seconds) {
+		double left = arena.x() + radius, right = arena.x() + arena.width() - radius;
+		double top = arena.y() + radius, bottom = arena.y() + arena.height() - radius;
+		for (int i = 0; i < x.length; i++) {
+			x[i] += dx[i] * seconds;
+			y[i] += dy[i] * seconds;
+			if (x[i] < left || x[i] > right) {
+				dx[i] = -dx[i];
+				x[i] = Math.max(left, Math.min(right, x[i]));
+			}
+			if (y[i] < top || y[i] > bottom) {
+				dy[i] = -dy[i];
+				y[i] = Math.max(top, Math.min(bottom, y[i]));
+			}
+		}
+	}
+
+	/**
+	 * Draws the arena and the ball into the frame
+	 *
+	 * @param seconds
+	 *            since the first frame
+	 */
+	private void render(double seconds) {
+		cvSet(canvas, wallColor);
+		cvRectangle(canvas, cvPoint(arena.x(), arena.y()),
+				cvPoint(arena.x() + arena.width() - 1, arena.y() + arena.height() - 1), groundColor, CV_FILLED, 8, 0);
+		for (int i = 0; i < x.length; i++)
+			cvCircle(canvas, cvPoint((int) Math.round(x[i]), (int) Math.round(y[i])), (int) Math.round(radius),
+					ballColors[i], CV_FILLED, CV_AA, 0);
+		if (blur > 0)
+			cvSmooth(canvas, canvas, CV_GAUSSIAN, blur);
+		if (lightingDrift > 0.0) {
+			double gain = 1.0 + lightingDrift
+					* Math.sin(2 * Math.PI * seconds / Constant.SYNTHETIC_LIGHTING_PERIOD);
+			cvConvertScale(canvas, canvas, gain, 0);
+		}
+		if (noiseImages != null)
+			cvAddWeighted(canvas, 1.0, noiseImages[(int) (frameIndex % noiseImages.length)], 1.0, -128.0, canvas);
+		// The camera looks straight down, walls and the top of the ball are
+		// closer than the floor
+		double floorDepth = Constant.SYNTHETIC_CAMERA_HEIGHT;
+		cvSet(depth, cvScalarAll(floorDepth - Constant.SYNTHETIC_WALL_HEIGHT));
+		cvRectangle(depth, cvPoint(arena.x(), arena.y()),
+				cvPoint(arena.x() + arena.width() - 1, arena.y() + arena.height() - 1), cvScalarAll(floorDepth),
+				CV_FILLED, 8, 0);
+		for (int i = 0; i < x.length; i++)
+			cvCircle(depth, cvPoint((int) Math.round(x[i]), (int) Math.round(y[i])), (int) Math.round(radius),
+					cvScalarAll(floorDepth - Constant.SPHERO_RADIUS_MM), CV_FILLED, 8, 0);
+	}
+
+	/**
+	 * @return depth image of the last returned frame
+	 */
+	@Override
+	public synchronized IplImage getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return position and radius of the ball in the last returned frame
+	 */
+	public synchronized CircleObservation getTruePosition() {
+		return truePositions[0];
+	}
+
+	/**
+	 * @return position and radius of every ball in the last returned frame,
+	 *         in the order of their colors
+	 */
+	public synchronized CircleObservation[] getTruePositions() {
+		return truePositions.clone();
+	}
+
+	/**
+	 * @return rectangle of the floor
+	 */
+	public CvRect getArena() {
+		return arena;
+	}
+
+	private void releaseNoise() {
+		if (noiseImages != null)
+			for (IplImage img : noiseImages)
+				NativeMemory.releaseImage(img);
+		noiseImages = null;
+	}
+
+	@Override
+	public synchronized void exit() {
+		running = false;
+		releaseNoise();
+		NativeMemory.releaseImage(canvas);
+		NativeMemory.releaseImage(depth);
+	}
+
+	@Override
+	public boolean ready() {
+		return running;
+	}
+
+	/**
+	 * Does nothing, a synthetic frame is never old
+	 */
+	@Override
+	public void flush() {
+
+	}
+}
@@ -1,23 +1,58 @@
 package webcam;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import main.StaticMethods;
+
 import com.googlecode.javacv.FrameGrabber.Exception;
 import com.googlecode.javacv.OpenCVFrameGrabber;
 import com.googlecode.javacv.cpp.opencv_core.IplImage;
 import com.googlecode.javacv.cpp.opencv_core.CvSize;
-import static com.googlecode.javacv.cpp.opencv_core.cvCreateImage;
 import static com.googlecode.javacv.cpp.opencv_imgproc.cvResize;
+import static com.googlecode.javacv.cpp.opencv_imgproc.cvPyrDown;
 import static com.googlecode.javacv.cpp.opencv_imgproc.CV_INTER_LINEAR;
-import static com.googlecode.javacv.cpp.opencv_core.cvReleaseImage;
+import static com.googlecode.javacv.cpp.opencv_imgproc.CV_GAUSSIAN_5x5;
 
 ;
 
 public class WebcamVideoFile implements InputStream {
 
-	private String file = "D://vid.avi";
+	private String file;
 	OpenCVFrameGrabber grabber;
+	private long sequence;
+	private double scale;
+	private boolean pyramid;
+	private List<IplImage> pool;
 
 	public WebcamVideoFile() {
+		this("D://vid.avi");
+	}
+
+	/**
+	 * @param file
+	 *            path of the video file
+	 */
+	public WebcamVideoFile(String file) {
+		this(file, 0.5, false);
+	}
+
+	/**
+	 * @param file
+	 *            path of the video file
+	 * @param scale
+	 *            factor that is applied to the width and height of the frames
+	 * @param pyramid
+	 *            if the frames are halved with gaussian pyramid steps before
+	 *            the remaining resize
+	 */
+	public WebcamVideoFile(String file, double scale, boolean pyramid) {
+		this.file = file;
+		this.scale = scale;
+		this.pyramid = pyramid;
 		grabber = null;
+		sequence = 0;
+		pool = new ArrayList<IplImage>();
 		init();
 	}
 
@@ -43,16 +78,79 @@ public class WebcamVideoFile implements InputStream {
 			e.printStackTrace();
 			System.exit(21);
 		}
-		IplImage small_img = null;
-		small_img = IplImage.create(
-				new CvSize((int) Math.round(img.width() / 2.0), (int) Math.round(img.height() / 2.0)), img.depth(), 3);
-		cvResize(img, small_img, CV_INTER_LINEAR);
-		return small_img;
+		if (img == null)
+			return null;
+		return downscale(img);
+	}
+
+	/**
+	 * Scales the image into buffers that are reused for every frame
+	 * 
+	 * @param img
+	 *            full size frame
+	 * @return scaled frame, only valid until the next call
+	 */
+	private IplImage downscale(IplImage img) {
+		if (scale == 1.0)
+			return img;
+		int width = (int) Math.round(img.width() * scale), height = (int) Math.round(img.height() * scale);
+		IplImage src = img;
+		int level = 0;
+		if (pyramid) {
+			while (src.width() / 2 >= width && src.height() / 2 >= height) {
+				IplImage dst = pooled(level, (src.width() + 1) / 2, (src.height() + 1) / 2, img);
+				cvPyrDown(src, dst, CV_GAUSSIAN_5x5);
+				src = dst;
+				level++;
+			}
+		}
+		if (src.width() != width || src.height() != height) {
+			IplImage dst = pooled(level, width, height, img);
+			cvResize(src, dst, CV_INTER_LINEAR);
+			src = dst;
+		}
+		return src;
+	}
+
+	/**
+	 * @param level
+	 *            index of the buffer
+	 * @param width
+	 * @param height
+	 * @param like
+	 *            image with the depth and channels of the buffer
+	 * @return buffer of the requested size, only allocated if the size changed
+	 */
+	private IplImage pooled(int level, int width, int height, IplImage like) {
+		while (pool.size() <= level)
+			pool.add(null);
+		IplImage buffer = pool.get(level);
+		if (buffer == null || buffer.width() != width || buffer.height() != height || buffer.depth() != like.depth()
+				|| buffer.nChannels() != like.nChannels()) {
+			if (buffer != null)
+				NativeMemory.releaseImage(buffer);
+			buffer = NativeMemory.createImage("WebcamVideoFile", new CvSize(width, height), like.depth(),
+					like.nChannels(), false);
+			pool.set(level, buffer);
+		}
+		return buffer;
+	}
+
+	@Override
+	public Frame nextFrame() {
+		IplImage img = nextImage();
+		if (img == null)
+			return null;
+		return new Frame(img, StaticMethods.monotonicMillis(), sequence++);
 	}
 
 	@Override
 	public void exit() {
 		System.out.println("Exit WebcamVideoFile");
+		for (IplImage buffer : pool)
+			if (buffer != null)
+				NativeMemory.releaseImage(buffer);
+		pool.clear();
 	}
 
 	@Override